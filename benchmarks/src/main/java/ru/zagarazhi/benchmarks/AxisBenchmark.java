@@ -0,0 +1,45 @@
+package ru.zagarazhi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.zagarazhi.LogarithmicTicks;
+
+/**
+ * Замеры вычисления делений логарифмической оси.
+ * Гистограмма - элемент управления JavaFX, поэтому замеряется вычисление делений ее логарифмической шкалы
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AxisBenchmark {
+
+    @Param({"1000", "1000000", "1000000000"})
+    public double upperBound;
+
+    @Param({"10"})
+    public int minorTickCount;
+
+    @Benchmark
+    public double[] ticks() {
+        return LogarithmicTicks.computeTickValues(1, upperBound);
+    }
+
+    @Benchmark
+    public double[] minorTicks() {
+        return LogarithmicTicks.computeMinorTickValues(1, upperBound, minorTickCount);
+    }
+}
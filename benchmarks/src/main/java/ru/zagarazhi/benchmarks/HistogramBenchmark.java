@@ -0,0 +1,98 @@
+package ru.zagarazhi.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.zagarazhi.Histogram;
+import ru.zagarazhi.HistogramIndex;
+import ru.zagarazhi.MbvImage;
+import ru.zagarazhi.RoiHistogram;
+
+/**
+ * Замеры построения гистограмм: полной, ее представлений для графика и гистограмм областей
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistogramBenchmark {
+
+    @Param({"501x3001", "2048x2048", "4096x8192"})
+    public String size;
+
+    @Param({"0", "2"})
+    public int offset;
+
+    private MbvImage image;
+    private Histogram histogram;
+    private HistogramIndex index;
+    private RoiHistogram roi;
+    private int[] counts = new int[Histogram.BINS];
+    private int step; //Смещение области при пошаговом обновлении
+
+    @Setup
+    public void setUp() {
+        int[] dimensions = MbvFixtures.size(size);
+        image = MbvFixtures.image(dimensions[0], dimensions[1]);
+        histogram = Histogram.of(image, 0, image.getHeight());
+        index = HistogramIndex.build(image);
+        roi = new RoiHistogram(index);
+    }
+
+    @Benchmark
+    public Histogram full() {
+        return Histogram.of(image, 0, image.getHeight());
+    }
+
+    @Benchmark
+    public int[] grouped() {
+        return histogram.grouped(4);
+    }
+
+    @Benchmark
+    public int[] shifted() {
+        return histogram.shifted(offset);
+    }
+
+    @Benchmark
+    public int percentiles() {
+        return histogram.percentile(0.005) + histogram.percentile(0.995);
+    }
+
+    @Benchmark
+    public HistogramIndex buildIndex() {
+        return HistogramIndex.build(image);
+    }
+
+    @Benchmark
+    public int[] indexQuery() {
+        Arrays.fill(counts, 0);
+        index.query(image.getWidth() / 8 + 3, image.getHeight() / 8 + 5,
+                image.getWidth() * 7 / 8 - 3, image.getHeight() * 7 / 8 - 5, counts);
+        return counts;
+    }
+
+    @Benchmark
+    public int[] roiDrag() {
+        //Нижняя граница области ходит вверх и вниз на один пиксель, как при перетаскивании слайдера
+        step = (step + 1) & 63;
+        int shift = step < 32 ? step : 64 - step;
+        roi.update(image.getWidth() / 8, image.getHeight() / 8,
+                image.getWidth() * 7 / 8, image.getHeight() * 7 / 8 - shift);
+        return roi.getCounts();
+    }
+}
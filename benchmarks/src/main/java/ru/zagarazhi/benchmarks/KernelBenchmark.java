@@ -0,0 +1,98 @@
+package ru.zagarazhi.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.zagarazhi.Kernels;
+import ru.zagarazhi.MbvImage;
+import ru.zagarazhi.TransferFunction;
+
+/**
+ * Замеры векторных циклов Kernels в сравнении со скалярными реализациями и с преобразованием по таблице цветов.
+ * Без модуля jdk.incubator.vector обе реализации совпадают
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+
+    @Param({"2048x2048"})
+    public String size;
+
+    private ByteBuffer bytes; //Яркости в формате файла
+    private short[] light; //Декодированные яркости
+    private byte[] gray; //Восьмибитные значения
+    private int[] argb; //Цвета
+    private int[] lut; //Таблица цветов сдвига
+
+    @Setup
+    public void setUp() {
+        int[] dimensions = MbvFixtures.size(size);
+        MbvImage image = MbvFixtures.image(dimensions[0], dimensions[1]);
+        light = image.getData();
+        bytes = ByteBuffer.allocateDirect(2 * light.length).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < light.length; i++) bytes.putShort(2 * i, light[i]);
+        gray = new byte[light.length];
+        argb = new int[light.length];
+        lut = TransferFunction.shift(2).getTable();
+        if(!Kernels.isVectorized()) System.err.println("Vector API is not available, both variants are scalar");
+    }
+
+    @Benchmark
+    public short[] decode() {
+        Kernels.decode(bytes, 0, light, 0, light.length);
+        return light;
+    }
+
+    @Benchmark
+    public short[] decodeScalar() {
+        Kernels.decodeScalar(bytes, 0, light, 0, light.length);
+        return light;
+    }
+
+    @Benchmark
+    public byte[] shiftToGray() {
+        Kernels.shiftToGray(light, 0, gray, 0, light.length, 2);
+        return gray;
+    }
+
+    @Benchmark
+    public byte[] shiftToGrayScalar() {
+        Kernels.shiftToGrayScalar(light, 0, gray, 0, light.length, 2);
+        return gray;
+    }
+
+    @Benchmark
+    public int[] shiftToArgb() {
+        Kernels.shiftToArgb(light, 0, argb, 0, light.length, 2);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] shiftToArgbScalar() {
+        Kernels.shiftToArgbScalar(light, 0, argb, 0, light.length, 2);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] lookup() {
+        for(int i = 0; i < light.length; i++) argb[i] = lut[light[i]];
+        return argb;
+    }
+}
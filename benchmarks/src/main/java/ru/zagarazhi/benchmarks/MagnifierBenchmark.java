@@ -0,0 +1,86 @@
+package ru.zagarazhi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.zagarazhi.FrameBuffer;
+import ru.zagarazhi.Magnifier;
+import ru.zagarazhi.MbvImage;
+import ru.zagarazhi.RangeMinMax;
+import ru.zagarazhi.TransferFunction;
+
+/**
+ * Замеры увеличения участка всеми четырьмя способами:
+ * ближайший сосед и интерполяция, с нормализацией и без.
+ * Полная перерисовка сравнивается с перемещением курсора на один пиксель за кадр
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MagnifierBenchmark {
+
+    private static final int WIDTH = 501; //Ширина изображения
+    private static final int HEIGHT = 3001; //Высота изображения
+
+    @Param({"NEIGHBOR", "INTERPOLATION"})
+    public Magnifier.Mode mode;
+
+    @Param({"false", "true"})
+    public boolean normalize;
+
+    @Param({"2", "5"})
+    public int scale;
+
+    @Param({"10", "50", "100"})
+    public int areaSize;
+
+    @Param({"2"})
+    public int offset;
+
+    private final Magnifier magnifier = new Magnifier();
+    private MbvImage image;
+    private RangeMinMax range;
+    private int[] lut;
+    private int step; //Смещение курсора при слежении
+
+    @Setup
+    public void setUp() {
+        image = MbvFixtures.image(WIDTH, HEIGHT);
+        range = RangeMinMax.build(image, 100);
+        lut = TransferFunction.shift(offset).getTable();
+    }
+
+    @Benchmark
+    public FrameBuffer full() {
+        magnifier.invalidate();
+        return magnifier.render(image, lut, mode, normalize, 100, 100, areaSize, scale, range);
+    }
+
+    @Benchmark
+    public FrameBuffer fullScan() {
+        magnifier.invalidate();
+        return magnifier.render(image, lut, mode, normalize, 100, 100, areaSize, scale, null);
+    }
+
+    @Benchmark
+    public FrameBuffer tracking() {
+        //Курсор ходит по диагонали туда и обратно на один пиксель за кадр
+        step = (step + 1) & 127;
+        int shift = step < 64 ? step : 128 - step;
+        return magnifier.render(image, lut, mode, normalize, 100 + shift, 100 + shift, areaSize, scale, range);
+    }
+}
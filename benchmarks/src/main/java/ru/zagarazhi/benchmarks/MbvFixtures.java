@@ -0,0 +1,79 @@
+package ru.zagarazhi.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import ru.zagarazhi.MbvImage;
+
+/**
+ * Класс синтетических изображений для замеров.
+ * Яркости - плавный градиент с шумом, поэтому гистограмма и нормализация ведут себя как на реальных снимках,
+ * а одинаковое зерно дает одинаковые данные от запуска к запуску.
+ */
+public final class MbvFixtures {
+
+    private static final long SEED = 42; //Зерно генератора шума
+
+    private MbvFixtures() {
+    }
+
+    /**
+     * Метод создания изображения в памяти
+     * @param width Ширина
+     * @param height Высота
+     * @return Изображение с десятибитными яркостями
+     */
+    public static MbvImage image(int width, int height) {
+        MbvImage image = new MbvImage(width, height);
+        Random random = new Random(SEED);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int light = (x * 700 / Math.max(width, 1) + y * 300 / Math.max(height, 1) + random.nextInt(24)) & 0x3FF;
+                image.set(x, y, (short)light);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Метод записи изображения во временный файл .mbv.
+     * Формат: ширина и высота по два байта, затем по два байта на пиксель, порядок байт от младшего к старшему
+     * @param width Ширина
+     * @param height Высота
+     * @return Файл, удаляемый при завершении виртуальной машины
+     * @throws IOException Если файл не удалось записать
+     */
+    public static File file(int width, int height) throws IOException {
+        MbvImage image = image(width, height);
+        File file = File.createTempFile("fixture-" + width + "x" + height + "-", ".mbv");
+        file.deleteOnExit();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 2 * width * height).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short)width);
+        buffer.putShort((short)height);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                buffer.putShort(image.get(x, y));
+            }
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buffer.hasRemaining()) channel.write(buffer);
+        }
+        return file;
+    }
+
+    /**
+     * Метод разбора размера вида "501x3001"
+     * @param size Строка размера
+     * @return Ширина и высота
+     */
+    public static int[] size(String size) {
+        String[] parts = size.split("x");
+        return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+}
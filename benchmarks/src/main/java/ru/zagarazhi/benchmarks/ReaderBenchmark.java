@@ -0,0 +1,53 @@
+package ru.zagarazhi.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.zagarazhi.MBVFileReader;
+import ru.zagarazhi.MbvImage;
+
+/**
+ * Замеры чтения файлов .mbv
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ReaderBenchmark {
+
+    @Param({"501x3001", "2048x2048", "4096x8192"})
+    public String size;
+
+    private File file; //Синтетический файл
+
+    @Setup
+    public void setUp() throws IOException {
+        int[] dimensions = MbvFixtures.size(size);
+        file = MbvFixtures.file(dimensions[0], dimensions[1]);
+    }
+
+    @Benchmark
+    public MbvImage read() throws IOException {
+        return MBVFileReader.read(file);
+    }
+
+    @Benchmark
+    public MbvImage readMapped() throws IOException {
+        return MBVFileReader.readMapped(file);
+    }
+}
@@ -0,0 +1,107 @@
+package ru.zagarazhi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.zagarazhi.ImageRenderer;
+import ru.zagarazhi.MbvImage;
+import ru.zagarazhi.MipMap;
+import ru.zagarazhi.RenderEngine;
+import ru.zagarazhi.TransferFunction;
+
+/**
+ * Замеры отрисовки основного и обзорного изображений без окна JavaFX.
+ * Основное изображение рисуется плитками 256x256 и видимой областью 1024x768,
+ * обзор - прореживанием исходного изображения и из пирамиды уменьшенных копий
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    private static final int TILE = 256; //Сторона плитки
+    private static final int VIEW_WIDTH = 1024; //Ширина видимой области
+    private static final int VIEW_HEIGHT = 768; //Высота видимой области
+    private static final int MINI_SIZE = 200; //Сторона обзорного изображения
+
+    @Param({"501x3001", "2048x2048", "4096x8192"})
+    public String size;
+
+    @Param({"0", "2"})
+    public int offset;
+
+    private MbvImage image;
+    private MipMap mipMap;
+    private int[] lut;
+    private int[] window;
+    private int[] dst;
+    private int viewWidth, viewHeight;
+    private int stepX, stepY;
+
+    @Setup
+    public void setUp() {
+        int[] dimensions = MbvFixtures.size(size);
+        image = MbvFixtures.image(dimensions[0], dimensions[1]);
+        mipMap = MipMap.build(image);
+        lut = TransferFunction.shift(offset).getTable();
+        window = TransferFunction.window(offset, true, 100, 900,
+                TransferFunction.Clamp.BORDER, TransferFunction.Clamp.BORDER).getTable();
+        viewWidth = Math.min(VIEW_WIDTH, image.getWidth());
+        viewHeight = Math.min(VIEW_HEIGHT, image.getHeight());
+        stepX = Math.max(image.getWidth() / MINI_SIZE, 1);
+        stepY = Math.max(image.getHeight() / MINI_SIZE, 1);
+        dst = new int[VIEW_WIDTH * VIEW_HEIGHT];
+    }
+
+    @Benchmark
+    public int[] tile() {
+        ImageRenderer.map(image, lut, 0, 0, Math.min(TILE, image.getWidth()), Math.min(TILE, image.getHeight()), dst, 0, TILE);
+        return dst;
+    }
+
+    @Benchmark
+    public int[] viewport() {
+        RenderEngine.getDefault().map(image, lut, 0, 0, viewWidth, viewHeight, dst, 0, viewWidth);
+        return dst;
+    }
+
+    @Benchmark
+    public int[] viewportWindow() {
+        RenderEngine.getDefault().getPool().invoke(RenderEngine.getDefault().mapTask(image, lut, window,
+                viewWidth / 4, viewHeight / 4, viewWidth * 3 / 4, viewHeight * 3 / 4,
+                0, 0, viewWidth, viewHeight, dst, 0, viewWidth));
+        return dst;
+    }
+
+    @Benchmark
+    public int[] overviewSample() {
+        ImageRenderer.sample(image, lut, 0, 0, stepX, stepY,
+                image.getWidth() / stepX, image.getHeight() / stepY, dst, 0, MINI_SIZE * 2);
+        return dst;
+    }
+
+    @Benchmark
+    public int[] overviewMipMap() {
+        mipMap.render(lut, 0, 0, stepX, stepY, image.getWidth() / stepX, image.getHeight() / stepY, dst, 0, MINI_SIZE * 2);
+        return dst;
+    }
+
+    @Benchmark
+    public MipMap buildMipMap() {
+        return MipMap.build(image);
+    }
+}
@@ -3,5 +3,6 @@ module ru.zagarazhi {
     requires javafx.fxml;
     requires java.desktop;
     requires org.controlsfx.controls;
+    requires static jdk.incubator.vector;
     exports ru.zagarazhi;
 }
@@ -1,45 +1,49 @@
 package ru.zagarazhi;
 
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
+import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
 import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
-import javafx.scene.chart.BarChart;
-import javafx.scene.chart.CategoryAxis;
-import javafx.scene.chart.NumberAxis;
-import javafx.scene.chart.ValueAxis;
-import javafx.scene.chart.XYChart;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.control.Slider;
 import javafx.scene.control.TextField;
 import javafx.scene.control.ToggleButton;
 import javafx.scene.control.ToggleGroup;
-import javafx.scene.image.PixelWriter;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
-import javafx.scene.layout.Pane;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
-import javafx.scene.shape.Line;
 import javafx.scene.text.Text;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.controlsfx.control.RangeSlider;
 import org.controlsfx.control.SegmentedButton;
@@ -49,30 +53,61 @@ import org.controlsfx.control.SegmentedButton;
  */
 public class App extends Application {
 
+    private static final int MAX_AREA_SIZE = 100; //Наибольший размер увеличиваемого участка
+    private static final double AUTO_LOW = 0.005; //Доля пикселей ниже окна автоконтраста
+    private static final double AUTO_HIGH = 0.995; //Доля пикселей ниже верхней границы окна автоконтраста
+    private static final int SEQUENCE_PREFETCH = 4; //Количество кадров серии, читаемых заранее
+
     private static Scene scene; //Базовая сцена приложения
     private StringProperty path = new SimpleStringProperty("Загрузите изображение");
     private int offset = 2; //Количество бит, на которое будет сдвинута каждая пара байт
     private int scale = 2; //Порядок увеличения изображения
     private int areaSize = 50; //Размер исходного участка
     private int padding = 0; //Количество строк сверху, которое будет пропущено
-    private short[][] pixels; //Исходные данные в формате два байта на пиксель
+    private TransferFunction transfer = TransferFunction.shift(offset); //Таблица цветов для текущего сдвига
+    private MbvImage pixels; //Исходные данные в формате два байта на пиксель
     private boolean cleared = true; //Флаг очистки увеличенной области 
     private boolean stopped = false; //Флаг остановки перемещения
     private int stoppedX, stoppedY; //Координаты зафиксированного пикселя
-    private BarChart<String, Number> vHistogram; //Вертикальная гистограмма
-    private BarChart<Number, String> hHistogram; //Горизонтальная гистограмма
-
-    /**
-     * Метод, превращающий двухбайтную яркость в формат INT_ARGB.
-     * Причем Альфа-канал всегда 0xFF.
-     * Старшие байты будут срезаны, если выходят за границы
-     * @param num Исходная яркость
-     * @return Цвет в формате INT_ARGB
-     */
-    private int cut(short num) {
-        int temp = (int)((num >>> offset) & 0xFF);
-        return (0xFF000000 | (temp << 16) | (temp << 8) | temp);
-    }
+    private Histogram histogram; //Гистограмма текущего изображения
+    private int histogramPadding; //Отступ, с которым построена гистограмма
+    private final FrameBuffer miniFrameBuffer = new FrameBuffer(); //Буфер обзорного изображения
+    private final Magnifier magnifier = new Magnifier(); //Увеличение участка изображения
+    private final RenderScheduler scheduler = new RenderScheduler(); //Планировщик перерисовок
+    private MipMap mipMap; //Пирамида уменьшенных копий текущего изображения
+    private RangeMinMax range; //Таблицы минимумов и максимумов текущего изображения
+    private IntegralImage integral; //Интегральное изображение текущего изображения
+    private HistogramIndex histogramIndex; //Индекс гистограмм областей текущего изображения
+    private RoiHistogram roiHistogram; //Гистограмма области, выбранной слайдерами
+    private boolean roiFull = true; //Совпадает ли выбранная область со всем изображением ниже отступа
+    private boolean fittingSliders; //Слайдеры области подгоняются под изображение, а не двигаются пользователем
+    private final ExecutorService background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "background");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }); //Поток фоновых вычислений
+    private final ExecutorService derived = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "derived");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }); //Поток построения таблиц по первому обращению
+    private MbvImage integralRequested; //Изображение, для которого уже запрошено интегральное изображение
+    private MbvImage rangeRequested; //Изображение, для которого уже запрошены таблицы минимумов и максимумов
+    private Runnable integralListener; //Действие после построения интегрального изображения
+    private volatile int histogramTicket; //Номер последнего запроса гистограммы; устаревшие запросы не выполняются
+    private Runnable histogramListener; //Действие после построения гистограммы с новым отступом
+    private ImageLoader loader; //Текущая задача загрузки
+    private ImageLoader.Listener loadListener; //Получатель результатов загрузки
+    private final ProgressBar loadProgress = new ProgressBar(0); //Прогресс загрузки
+    private FrameSequence sequence; //Открытая серия кадров или null
+    private final Slider frameSlider = new Slider(0, 0, 0); //Номер кадра серии
+    private final Label frameLabel = new Label(); //Подпись номера кадра
 
     /**
      * Метод очистки поля отрисовки изображения
@@ -87,73 +122,124 @@ public class App extends Application {
      */
     public void fileImageBtnPressed() {
         FileChooser fileChooser = new FileChooser();
-        FileChooser.ExtensionFilter fileExtension = new FileChooser.ExtensionFilter("Выберете файл", "*.mbv");
+        FileChooser.ExtensionFilter fileExtension = new FileChooser.ExtensionFilter("Выберете файл", "*.mbv", "*.mbvt");
         fileChooser.getExtensionFilters().add(fileExtension);
         File mbvFile= fileChooser.showOpenDialog(new Stage());
         if (mbvFile != null) {
-            try {
-                pixels = MBVFileReader.read(mbvFile);
-                path.setValue(mbvFile.getName());
-            } catch (SecurityException | IOException e) {
-                path.setValue("Не удалось открыть файл");
-            }
+            closeSequence();
+            load(mbvFile);
         } else {
             path.setValue("Файл не найден");
         }
     }
 
     /**
-     * Метод отрисовки изображения с учетом сдвига.
-     * При этом размер полотна меняется под размеры изображения с учетом отступа.
-     * @param canvas Полотно, в которое будет добавлено изображение
+     * Метод фоновой загрузки файла.
+     * Незавершенная загрузка предыдущего файла при этом отменяется
+     * @param mbvFile Загружаемый файл
      */
-    private void render(Canvas canvas) {
-        if(pixels != null) {
-            if(pixels.length > 0 && pixels[0].length > 0) {
-                canvas.setHeight(pixels.length - padding);
-                canvas.setWidth(pixels[0].length);
-                PixelWriter pixelWriter = canvas.getGraphicsContext2D().getPixelWriter();
-                for(int i = padding; i < pixels.length; i++) {
-                    for(int j = 0; j < pixels[0].length; j++) {
-                        pixelWriter.setArgb(j, i - padding, cut(pixels[i][j]));
-                    }
+    private void load(File mbvFile) {
+        execute(new ImageLoader(mbvFile, padding, loadListener));
+    }
+
+    /**
+     * Метод выбора каталога с серией кадров
+     */
+    public void sequenceBtnPressed() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Выберите каталог с серией кадров");
+        File directory = directoryChooser.showDialog(new Stage());
+        if(directory == null) return;
+        closeSequence();
+        try {
+            //Под кэш кадров отводится четверть доступной памяти
+            sequence = FrameSequence.open(directory, Runtime.getRuntime().maxMemory() / 4, SEQUENCE_PREFETCH);
+        } catch (IOException ioException) {
+            path.setValue("В каталоге нет файлов .mbv");
+            return;
+        }
+        frameSlider.setMax(sequence.size() - 1);
+        frameSlider.setValue(0);
+        //Сброс слайдера ставит в очередь переход к нулевому кадру, а кадр загружается ниже сразу
+        scheduler.cancel(RenderScheduler.Target.FRAME);
+        frameSlider.setVisible(true);
+        frameLabel.setVisible(true);
+        loadFrame(0);
+    }
+
+    /**
+     * Метод закрытия серии кадров. Кэш кадров при этом освобождается,
+     * а еще не выполненный переход к кадру прежней серии отбрасывается
+     */
+    private void closeSequence() {
+        scheduler.cancel(RenderScheduler.Target.FRAME);
+        if(sequence == null) return;
+        sequence.close();
+        sequence = null;
+        frameSlider.setVisible(false);
+        frameLabel.setVisible(false);
+    }
+
+    /**
+     * Метод фоновой загрузки кадра серии. Кадр берется из кэша серии, если он уже прочитан.
+     * Размеры и диапазон яркостей кадра показываются сразу, если кадр есть в индексе каталога
+     * @param index Номер кадра
+     */
+    private void loadFrame(int index) {
+        if(sequence == null) return;
+        String text = "Кадр: " + (index + 1) + " из " + sequence.size();
+        MbvIndex.Entry entry = sequence.getEntry(index);
+        if(entry != null) {
+            text += " (" + entry.getWidth() + "x" + entry.getHeight()
+                    + ", яркость " + entry.getMin() + "-" + entry.getMax() + ")";
+        }
+        frameLabel.setText(text);
+        execute(new ImageLoader(sequence, index, padding, loadListener));
+    }
+
+    /**
+     * Метод запуска задачи загрузки.
+     * Незавершенная загрузка предыдущего файла при этом отменяется
+     * @param task Задача загрузки
+     */
+    private void execute(final ImageLoader task) {
+        if(loader != null) loader.cancel(true);
+        loader = task;
+        path.setValue("Загрузка: " + task.getFile().getName());
+        loadProgress.progressProperty().bind(task.progressProperty());
+        loadProgress.setVisible(true);
+        task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent event) {
+                if(loader == task) {
+                    loader = null;
+                    loadProgress.setVisible(false);
                 }
             }
-        }
+        });
+        task.setOnFailed(new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent event) {
+                if(loader == task) {
+                    loader = null;
+                    loadProgress.setVisible(false);
+                    path.setValue("Не удалось открыть файл");
+                }
+            }
+        });
+        background.execute(task);
     }
 
-    private void render(Canvas canvas, 
-                        boolean fullLight, 
-                        boolean rightMax, 
-                        boolean leftMax,
-                        boolean rightMin, 
-                        boolean leftMin, 
-                        int left, 
-                        int right, 
-                        int top, 
-                        int bottom, 
-                        int lowFill, 
-                        int highFill) {
-        double coef = 1023.0 / (highFill - lowFill);
-        short temp = 0;
+    /**
+     * Метод отрисовки изображения с учетом сдвига.
+     * При этом размер поля меняется под размеры изображения с учетом отступа,
+     * а отрисовываются только видимые плитки.
+     * @param imageView Поле, в которое будет добавлено изображение
+     */
+    private void render(TiledImageView imageView) {
         if(pixels != null) {
-            if(pixels.length > 0 && pixels[0].length > 0) {
-                PixelWriter pixelWriter = canvas.getGraphicsContext2D().getPixelWriter();
-                for(int i = top; i < bottom; i++) {
-                    for(int j = left; j < right; j++) {
-                        if(fullLight) {
-                            pixelWriter.setArgb(j, i, (cut((short)(((pixels[i][j] * coef) + lowFill)))));
-                        } else {
-                            temp = pixels[i][j];
-                            if(temp > highFill) {
-                                temp = rightMax ? 255 : rightMin ? 0 : (short)highFill;
-                            } else if(temp < lowFill){
-                                temp = leftMax ? 255 : leftMin ? 0 : (short)lowFill;
-                            }
-                            pixelWriter.setArgb(j, i, (cut(temp)));
-                        }
-                    }
-                }
+            if(!pixels.isEmpty()) {
+                imageView.setImage(pixels, padding, transfer);
             }
         }
     }
@@ -165,268 +251,264 @@ public class App extends Application {
      */
     private void miniRender(Canvas canvas) {
         if(pixels != null) {
-            if(pixels.length > 0 && pixels[0].length > 0) {
-                int deltaX = (int)(pixels[0].length / canvas.getWidth());
-                int deltaY = (int)(pixels.length / canvas.getHeight());
-                PixelWriter pixelWriter = canvas.getGraphicsContext2D().getPixelWriter();
-                for(int i = padding; i < pixels.length; i += deltaY) {
-                    for(int j = 0; j < pixels[0].length; j += deltaX) {
-                        pixelWriter.setArgb(j / deltaX, (i - padding) / deltaY, cut(pixels[i][j]));
-                    }
+            if(!pixels.isEmpty()) {
+                int width = pixels.getWidth();
+                int[] lut = transfer.getTable();
+                int deltaX = Math.max(1, (int)(width / canvas.getWidth()));
+                int deltaY = Math.max(1, (int)(pixels.getHeight() / canvas.getHeight()));
+                int miniWidth = Math.min((width + deltaX - 1) / deltaX, (int)canvas.getWidth());
+                int miniHeight = Math.min((pixels.getHeight() - padding + deltaY - 1) / deltaY, (int)canvas.getHeight());
+                miniFrameBuffer.resize(miniWidth, miniHeight);
+                if(mipMap != null) {
+                    //Уменьшенная копия берется из ближайшего уровня пирамиды
+                    mipMap.render(lut, 0, padding, deltaX, deltaY, miniWidth, miniHeight,
+                            miniFrameBuffer.getData(), 0, miniWidth);
+                } else {
+                    RenderEngine.getDefault().sample(pixels, lut, 0, padding, deltaX, deltaY, miniWidth, miniHeight,
+                            miniFrameBuffer.getData(), 0, miniWidth);
                 }
+                miniFrameBuffer.blit(canvas.getGraphicsContext2D().getPixelWriter(), 0, 0);
             }
         }
     }
 
     /**
-     * Отрисовка увеличенного изображения методом ближайшего соседа без нормализации
+     * Отрисовка увеличенного изображения.
+     * Участок увеличивается в буфер и передается в полотно одним вызовом
      * @param x Координата x середины увеличиваемой области
      * @param y Координата y середины увеличиваемой области
      * @param canvas Полотно, на котором будет отрисовано изображение
+     * @param mode Метод увеличения
+     * @param normalize Нужно ли нормировать яркость
      */
-    private void areaRenderNeighbor(int x, int y, Canvas canvas) {
+    private void areaRender(int x, int y, Canvas canvas, Magnifier.Mode mode, boolean normalize) {
         int cornerX = x - areaSize / 2; //Координата X левого верхнего угла
         int cornerY = y - areaSize / 2; //Координата Y левого верхнего угла 
-        int color;
-        PixelWriter pixelWriter = canvas.getGraphicsContext2D().getPixelWriter();
-        for(int i = 0; i < areaSize; i++) {
-            for(int j = 0; j < areaSize; j++) {
-                color = cut(pixels[cornerY + i + padding][cornerX + j]);
-                for(int m = 0; m < scale; m++) {
-                    for(int n = 0; n < scale; n++) {
-                        pixelWriter.setArgb(j * scale + m, i * scale + n, color);
-                    }
-                }
-            }
-        }
+        if(normalize) requestRange();
+        magnifier.render(pixels, transfer.getTable(), mode, normalize, cornerX, cornerY + padding, areaSize, scale, range)
+                .blit(canvas.getGraphicsContext2D().getPixelWriter(), 0, 0);
         cleared = false;
     }
 
     /**
-     * Отрисовка увеличенного изображения методом ближайшего соседа c нормализацией
-     * @param x Координата x середины увеличиваемой области
-     * @param y Координата y середины увеличиваемой области
-     * @param canvas Полотно, на котором будет отрисовано изображение
+     * Метод описания характеристик прямоугольника изображения по интегральному изображению
+     * @param title Название прямоугольника
+     * @param x Координата x левого верхнего угла
+     * @param y Координата y левого верхнего угла с учетом отступа
+     * @param width Ширина прямоугольника
+     * @param height Высота прямоугольника
+     * @return Количество пикселей, среднее и СКО яркости или пустая строка, пока характеристики не готовы
      */
-    private void areaRenderNeighborNormalaze(int x, int y, Canvas canvas) {
-        int cornerX = x - areaSize / 2; //Координата X левого верхнего угла
-        int cornerY = y - areaSize / 2; //Координата Y левого верхнего угла 
-        int temp;
-        int light, minLight = 255, maxLight = 0;
-        double coef = 0;
-        PixelWriter pixelWriter = canvas.getGraphicsContext2D().getPixelWriter();
-        //Определения самого яркого и самого тусклого пикселей и коффицента,
-        //который преобразует эту область в числа в диапазоне [0;255]
-        for(int i = cornerY + padding; i < cornerY + padding + areaSize; i++) {
-            for(int j = cornerX; j < cornerX + areaSize; j++) {
-                temp = pixels[i][j];
-                if(temp < minLight) minLight = temp;
-                if(temp > maxLight) maxLight = temp;
-            }
+    private String statsText(String title, int x, int y, int width, int height) {
+        if(integral == null || integral.getImage() != pixels) {
+            requestIntegral();
+            return "";
         }
-        coef = 255.0f / (maxLight - minLight);
-        for(int i = 0; i < areaSize; i++) {
-            for(int j = 0; j < areaSize; j++) {
-                light = (int) ((pixels[cornerY + i + padding][cornerX + j] - minLight) * coef);
-                light = (0xFF000000 | (light << 16) | (light << 8) | light);
-                for(int m = 0; m < scale; m++) {
-                    for(int n = 0; n < scale; n++) {
-                        pixelWriter.setArgb(j * scale + m, i * scale + n, light);
+        IntegralImage.Stats stats = integral.stats(x, y, width, height);
+        return String.format("%s: %d пикс., среднее %.1f, СКО %.1f",
+                title, stats.getCount(), stats.getMean(), stats.getStandardDeviation());
+    }
+
+    /**
+     * Проверка, что таблицы заданного размера поместятся в память.
+     * Таблицам отводится не больше половины свободной памяти, чтобы их построение
+     * не мешало загрузке следующих изображений
+     * @param bytes Размер таблиц в байтах
+     * @return true, если таблицы можно строить
+     */
+    private static boolean fits(long bytes) {
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return bytes <= free / 2;
+    }
+
+    /**
+     * Метод построения интегрального изображения при первом обращении к характеристикам областей.
+     * Таблицы занимают 16 байт на пиксель, поэтому при нехватке памяти характеристики не показываются
+     */
+    private void requestIntegral() {
+        if(pixels == null || pixels.isEmpty() || integralRequested == pixels) return;
+        integralRequested = pixels;
+        if(!fits(IntegralImage.bytes(pixels.getWidth(), pixels.getHeight()))) return;
+        final MbvImage image = pixels;
+        derived.execute(new Runnable() {
+            @Override
+            public void run() {
+                final IntegralImage ready = IntegralImage.build(image);
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(pixels != image) return;
+                        integral = ready;
+                        if(integralListener != null) integralListener.run();
                     }
-                }
+                });
             }
-        }
-        cleared = false;
+        });
     }
 
     /**
-     * Отрисовка увеличенного изображения методом билинейной интерполяции без нормализации
-     * @param x Координата x середины увеличиваемой области
-     * @param y Координата y середины увеличиваемой области
-     * @param canvas Полотно, на котором будет отрисовано изображение
+     * Метод построения таблиц минимумов и максимумов при первом нормировании увеличенного участка.
+     * Пока таблицы не готовы или не помещаются в память, участок просматривается целиком
      */
-    private void areaRenderInterpolation(int x, int y, Canvas canvas) {
-        int cornerX = x - areaSize / 2; //Координата X левого верхнего угла
-        int cornerY = y - areaSize / 2; //Координата Y левого верхнего угла 
-        int a, b, c, d;
-        int color;
-        PixelWriter pixelWriter = canvas.getGraphicsContext2D().getPixelWriter();
-        for(int i = 0; i < areaSize; i++) {
-            for(int j = 0; j < areaSize; j++) {
-                d = pixels[cornerY + i + padding][cornerX + j];
-                a = pixels[cornerY + i + padding][cornerX + j + 1] - d;
-                b = pixels[cornerY + i + padding + 1][cornerX + j] - d;
-                c = pixels[cornerY + i + padding + 1][cornerX + j + 1] - a - b - d;
-                for(int m = 0; m < scale; m++) {
-                    for(int n = 0; n < scale; n++) {
-                        color = cut((short)((
-                            (a * (double)n / scale)
-                            + (b * (double)m / scale)
-                            + (c * (double)n / scale * (double)m / scale)
-                            + d)));
-                        pixelWriter.setArgb(j * scale + n, i * scale + m, color);
+    private void requestRange() {
+        if(pixels == null || pixels.isEmpty() || rangeRequested == pixels) return;
+        rangeRequested = pixels;
+        if(!fits(RangeMinMax.bytes(pixels.getWidth(), pixels.getHeight(), MAX_AREA_SIZE))) return;
+        final MbvImage image = pixels;
+        derived.execute(new Runnable() {
+            @Override
+            public void run() {
+                final RangeMinMax ready = RangeMinMax.build(image, MAX_AREA_SIZE);
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(pixels == image) range = ready;
                     }
-                }
+                });
             }
-        }
-        cleared = false;
+        });
     }
 
     /**
-     * Отрисовка увеличенного изображения методом билинейной интерполяции с нормализацией
-     * @param x Координата x середины увеличиваемой области
-     * @param y Координата y середины увеличиваемой области
-     * @param canvas Полотно, на котором будет отрисовано изображение
+     * Метод получения гистограммы строк изображения ниже отступа.
+     * При смене отступа гистограмма берется из индекса гистограмм, если он уже построен,
+     * иначе строится в фоновом потоке, а до ее готовности возвращается null
+     * @return Полная гистограмма яркостей или null
      */
-    private void areaRenderInterpolationNormalize(int x, int y, Canvas canvas) {
-        int cornerX = x - areaSize / 2; //Координата X левого верхнего угла
-        int cornerY = y - areaSize / 2; //Координата Y левого верхнего угла 
-        int a, b, c, d;
-        int light;
-        int temp, minLight = 255, maxLight = 0;
-        double coef = 0;
-        PixelWriter pixelWriter = canvas.getGraphicsContext2D().getPixelWriter();
-        //Определения самого яркого и самого тусклого пикселей и коффицента,
-        //который преобразует эту область в числа в диапазоне [0;255]
-        for(int i = cornerY + padding; i < cornerY + padding + areaSize; i++) {
-            for(int j = cornerX; j < cornerX + areaSize; j++) {
-                temp = pixels[i][j];
-                if(temp < minLight) minLight = temp;
-                if(temp > maxLight) maxLight = temp;
-            }
+    private Histogram histogram() {
+        final int from = Math.min(padding, pixels.getHeight());
+        if(histogram != null && histogramPadding == from) return histogram;
+        if(histogramIndex != null && histogramIndex.getImage() == pixels) {
+            int[] counts = new int[Histogram.BINS];
+            histogramIndex.query(0, from, pixels.getWidth(), pixels.getHeight(), counts);
+            histogram = new Histogram(counts);
+            histogramPadding = from;
+            return histogram;
         }
-        coef = 255.0f / (maxLight - minLight);
-        for(int i = 0; i < areaSize; i++) {
-            for(int j = 0; j < areaSize; j++) {
-                d = pixels[cornerY + i + padding][cornerX + j];
-                a = pixels[cornerY + i + padding][cornerX + j + 1] - d;
-                b = pixels[cornerY + i + padding + 1][cornerX + j] - d;
-                c = pixels[cornerY + i + padding + 1][cornerX + j + 1] - a - b - d;
-                for(int m = 0; m < scale; m++) {
-                    for(int n = 0; n < scale; n++) {
-                        light = (int)(((
-                            (a * (double)n / scale)
-                            + (b * (double)m / scale)
-                            + (c * (double)n / scale * (double)m / scale)
-                            + d) - minLight) * coef);
-                        //
-                        if(light < 0) light = 0;
-                        if(light > 255) light = 255;
-                        light = (0xFF000000 | (light << 16) | (light << 8) | light);
-                        pixelWriter.setArgb(j * scale + n, i * scale + m, light);
+        requestHistogram(from);
+        return null;
+    }
+
+    /**
+     * Метод построения гистограммы строк ниже отступа в фоновом потоке.
+     * Если за время ожидания отступ снова изменился, устаревший запрос пропускается
+     * @param from Первая строка гистограммы
+     */
+    private void requestHistogram(final int from) {
+        final MbvImage image = pixels;
+        final int ticket = ++histogramTicket;
+        derived.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(ticket != histogramTicket) return;
+                final Histogram ready = Histogram.of(image, from, image.getHeight());
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(pixels != image || Math.min(padding, pixels.getHeight()) != from) return;
+                        histogram = ready;
+                        histogramPadding = from;
+                        if(histogramListener != null) histogramListener.run();
                     }
-                }
+                });
             }
-        }
-        cleared = false;
+        });
     }
 
     /**
-     * Метод, создающий вертикальную гистограмму
-     * @param isLog Нужно ли делать количество пикселей логарифмической шкалой
+     * Метод перемещения области гистограммы в соответствии со слайдерами
+     * @param widthSlider Слайдер столбцов области
+     * @param heighSlider Слайдер строк области, отсчитываемых снизу
      */
-    private void createVHistogram(boolean isLog, boolean fullSize){
-        int[] pixelsCountByLight = new int[fullSize ? 1024 : 256];
-        for(int i = padding; i < pixels.length; i++) {
-            for(int j = 0; j < pixels[0].length; j++) {
-                if(fullSize) {
-                    pixelsCountByLight[pixels[i][j]]++;
-                } else {
-                    pixelsCountByLight[(pixels[i][j] >>> offset) & 0xFF]++;
-                }
-            }
+    private void updateRoiHistogram(RangeSlider widthSlider, RangeSlider heighSlider) {
+        if(roiHistogram == null || roiHistogram.getImage() != pixels) return;
+        //Границы области в строках изображения с учетом отступа
+        roiHistogram.update((int)widthSlider.getLowValue(),
+                roiTop(heighSlider) + padding,
+                (int)widthSlider.getHighValue(),
+                roiBottom(heighSlider) + padding);
+        roiFull = widthSlider.getLowValue() <= widthSlider.getMin() && widthSlider.getHighValue() >= widthSlider.getMax()
+                && heighSlider.getLowValue() <= heighSlider.getMin() && heighSlider.getHighValue() >= heighSlider.getMax();
+    }
+
+    /**
+     * Верхняя граница выбранной области в строках ниже отступа. Значения слайдера строк отсчитываются снизу
+     * @param heighSlider Слайдер строк области
+     */
+    private static int roiTop(RangeSlider heighSlider) {
+        return (int)(heighSlider.getMax() - heighSlider.getHighValue());
+    }
+
+    /**
+     * Нижняя граница выбранной области в строках ниже отступа
+     * @param heighSlider Слайдер строк области
+     */
+    private static int roiBottom(RangeSlider heighSlider) {
+        return (int)(heighSlider.getMax() - heighSlider.getLowValue());
+    }
+
+    /**
+     * Метод подгонки слайдеров области под размеры изображения ниже отступа.
+     * Если размеры изменились, область сбрасывается на все изображение
+     * @param widthSlider Слайдер столбцов области
+     * @param heighSlider Слайдер строк области
+     */
+    private void fitRoiSliders(RangeSlider widthSlider, RangeSlider heighSlider) {
+        if(pixels == null) return;
+        int width = pixels.getWidth();
+        int height = Math.max(0, pixels.getHeight() - padding);
+        fittingSliders = true;
+        if(widthSlider.getMax() != width) {
+            widthSlider.setLowValue(0);
+            widthSlider.setMax(width);
+            widthSlider.setHighValue(width);
+            widthSlider.setMajorTickUnit(Math.max(1, width / 20));
+            widthSlider.setMaxWidth(width);
         }
-        int min = pixels.length * pixels[0].length;
-        int max = 0;
-        XYChart.Series<String, Number> series = new XYChart.Series<>();
-        int temp = 0;
-        if(fullSize) {
-            for(int i = 0; i < pixelsCountByLight.length; i+=4) {
-                if(pixelsCountByLight[i] < min) min = pixelsCountByLight[i];
-                if(pixelsCountByLight[i] > max) max = pixelsCountByLight[i];
-                for(int j = 0; j < 4; j++) {
-                    temp += pixelsCountByLight[i];
-                }
-                series.getData().add(new XYChart.Data<String, Number>("" + i, temp));
-                temp = 0;
-            }
-        } else {
-            for(int i = 0; i < pixelsCountByLight.length; i++) {
-                if(pixelsCountByLight[i] < min) min = pixelsCountByLight[i];
-                if(pixelsCountByLight[i] > max) max = pixelsCountByLight[i];
-                series.getData().add(new XYChart.Data<String, Number>("" + i, pixelsCountByLight[i]));
-            }
+        if(heighSlider.getMax() != height) {
+            heighSlider.setLowValue(0);
+            heighSlider.setMax(height);
+            heighSlider.setHighValue(height);
+            heighSlider.setMajorTickUnit(Math.max(1, height / 20));
+            heighSlider.setMaxHeight(height);
         }
-        final CategoryAxis xAxis = new CategoryAxis();
-        final ValueAxis<Number> yAxis = isLog ? new LogarithmicAxis(min + 1, fullSize ? max * 4 : max) : new NumberAxis();
-        final BarChart<String, Number> histogram = new BarChart<>(xAxis, yAxis);
-        histogram.setLegendVisible(false);
-        histogram.setAnimated(false);
-        histogram.setTitle("Количество пикселей");
-        histogram.setMinHeight(500);
-        histogram.setMinWidth(800);
-        histogram.setBarGap(0);
-        histogram.setCategoryGap(0);
-        histogram.setVerticalGridLinesVisible(false);
-        histogram.setHorizontalGridLinesVisible(false);
-        xAxis.setLabel("Яркости");
-        yAxis.setLabel("Количество");
-        histogram.getData().add(series);
-        vHistogram = histogram;
+        fittingSliders = false;
     }
 
     /**
-     * Метод, создающий горизонтальную гистограмму
-     * @param isLog Нужно ли делать количество пикселей логарифмической шкалой
+     * Гистограмма, которая сейчас показывается.
+     * Когда построен индекс и область выбрана не целиком, это гистограмма выбранной области,
+     * иначе - всего изображения ниже отступа
+     * @return Гистограмма из 1024 столбцов или null, пока гистограмма с текущим отступом не построена
      */
-    private void createHHistogram(boolean isLog, boolean fullSize){
-        int[] pixelsCountByLight = new int[fullSize ? 1024 : 256];
-        for(int i = padding; i < pixels.length; i++) {
-            for(int j = 0; j < pixels[0].length; j++) {
-                if(fullSize) {
-                    pixelsCountByLight[pixels[i][j]]++;
-                } else {
-                    pixelsCountByLight[(pixels[i][j] >>> offset) & 0xFF]++;
-                }
-            }
+    private Histogram displayedHistogram() {
+        if(roiHistogram != null && roiHistogram.getImage() == pixels && !roiFull) {
+            return new Histogram(roiHistogram.getCounts().clone());
         }
-        int min = pixels.length * pixels[0].length;
-        int max = 0;
-        XYChart.Series<Number, String> series = new XYChart.Series<>();
-        int temp = 0;
+        return histogram();
+    }
+
+    /**
+     * Метод обновления гистограммы.
+     * Данные берутся из уже построенной гистограммы всего изображения или выбранной области,
+     * пиксели изображения не просматриваются
+     * @param chart Гистограмма
+     * @param isLog Нужно ли делать количество пикселей логарифмической шкалой
+     * @param isHorizontal Нужно ли горизонтальное представление
+     * @param fullSize Нужно ли показывать весь диапазон [0;1023] вместо яркостей после сдвига
+     */
+    private void updateHistogram(HistogramChart chart, boolean isLog, boolean isHorizontal, boolean fullSize) {
+        if(pixels == null) return;
+        chart.setHorizontal(isHorizontal);
+        chart.setLogarithmic(isLog);
+        Histogram source = displayedHistogram();
+        if(source == null) return;
         if(fullSize) {
-            for(int i = 0; i < pixelsCountByLight.length; i+=4) {
-                if(pixelsCountByLight[i] < min) min = pixelsCountByLight[i];
-                if(pixelsCountByLight[i] > max) max = pixelsCountByLight[i];
-                for(int j = 0; j < 4; j++) {
-                    temp += pixelsCountByLight[i];
-                }
-                series.getData().add(new XYChart.Data<Number, String>(temp, "" + i));
-                temp = 0;
-            }
+            chart.setData(source.grouped(4), Histogram.BINS);
         } else {
-            for(int i = 0; i < pixelsCountByLight.length; i++) {
-                if(pixelsCountByLight[i] < min) min = pixelsCountByLight[i];
-                if(pixelsCountByLight[i] > max) max = pixelsCountByLight[i];
-                series.getData().add(new XYChart.Data<Number, String>(pixelsCountByLight[i], "" + i));
-            }
+            chart.setData(source.shifted(offset), 256);
         }
-        final CategoryAxis xAxis = new CategoryAxis();
-        final ValueAxis<Number> yAxis = isLog ? new LogarithmicAxis(min + 1, fullSize ? max * 4 : max) : new NumberAxis();
-        final BarChart<Number, String> histogram = new BarChart<>(yAxis, xAxis);
-        histogram.setLegendVisible(false);
-        histogram.setAnimated(false);
-        histogram.setTitle("Количество пикселей");
-        histogram.setMinHeight(600);
-        histogram.setMinWidth(400);
-        histogram.setBarGap(0);
-        histogram.setCategoryGap(0);
-        histogram.setVerticalGridLinesVisible(false);
-        histogram.setHorizontalGridLinesVisible(false);
-        xAxis.setLabel("Яркости");
-        yAxis.setLabel("Количество");
-        histogram.getData().add(series);
-        hHistogram = histogram;
     }
 
     @Override
@@ -459,6 +541,7 @@ public class App extends Application {
 
         //Элементы загрузки файла
         Button loadButton = new Button("Загрузить файл");
+        Button sequenceButton = new Button("Открыть серию");
         Text loadText = new Text();
 
         //Элементы для работы со сдвигом
@@ -475,14 +558,16 @@ public class App extends Application {
         Label xInfo = new Label();
         Label yInfo = new Label();
         Label lightInfo = new Label();
+        Label neighborInfo = new Label();
+        Label roiInfo = new Label();
 
         //Элементы для указания размеров изображения
         Label imageInfoLabel = new Label();
         Label imageHeight = new Label();
         Label imageWidth = new Label();
 
-        //Полотно и полоса прокрутки для нее
-        Canvas canvas = new Canvas(500.0f, 500.0f);
+        //Поле изображения и полоса прокрутки для него
+        TiledImageView imageView = new TiledImageView();
         ScrollPane scrollPane = new ScrollPane(sliderHBox);
         scrollPane.setMinWidth(600);
 
@@ -498,11 +583,12 @@ public class App extends Application {
         Label areaSizeInfoLabel = new Label("Размер поля: ");
         Label areaSizeLabel = new Label("Размер области: 50");
         Slider multiplierSlider = new Slider(2, 5, 2);
-        Slider areaSizeSlider = new Slider(10, 100, 50);
+        Slider areaSizeSlider = new Slider(10, MAX_AREA_SIZE, 50);
         ToggleGroup multiplierGroup = new ToggleGroup();
         RadioButton neighbor = new RadioButton("Метод ближайшего соседа");
         RadioButton interpolation = new RadioButton("Метод билинейной интерполяции");
         CheckBox normalaze = new CheckBox("Нормировать яркость");
+        CheckBox autoWindow = new CheckBox("Автоконтраст (0,5% - 99,5%)");
 
         //Элементы для выбора дополнительных возможностей приложения
         ToggleButton multiplierSelect = new ToggleButton("Увеличение");
@@ -511,11 +597,7 @@ public class App extends Application {
         histogramSelect.setSelected(true);
 
         //Элементы для работы с гистрограммой
-        Pane pane = new Pane();
-        Line leftLine = new Line();
-        Line rightLine = new Line();
-        Line topLine = new Line();
-        Line bottomLine = new Line();
+        HistogramChart histogramChart = new HistogramChart();
         RangeSlider lightSlider = new RangeSlider(0, 1023, 0, 1023);
         RangeSlider widthSlider = new RangeSlider(0, 500, 0, 500);
         RangeSlider heighSlider = new RangeSlider(0, 3000, 0, 3000);
@@ -550,49 +632,37 @@ public class App extends Application {
         widthSlider.setMaxWidth(500);
         widthSlider.setVisible(false);
 
-        leftLine.toFront();
-        leftLine.setStartY(33);
-        leftLine.setEndY(433);
-        leftLine.setStartX(79);
-        leftLine.setEndX(79);
-        leftLine.setVisible(false);
-
-        rightLine.toFront();
-        rightLine.setStartY(33);
-        rightLine.setEndY(433);
-        rightLine.setStartX(779);
-        rightLine.setEndX(779);
-        rightLine.setVisible(false);
-
-        bottomLine.toFront();
-        bottomLine.setStartY(535);
-        bottomLine.setEndY(535);
-        bottomLine.setStartX(70);
-        bottomLine.setEndX(433);
-
-        topLine.toFront();
-        topLine.setStartY(45);
-        topLine.setEndY(45);
-        topLine.setStartX(70);
-        topLine.setEndX(433);
+        histogramChart.setHorizontal(false);
+
+        //Действия перерисовки областей окна.
+        //Вызываются через планировщик не чаще одного раза за кадр
+        Runnable mainRedraw = new Runnable() {
+            @Override
+            public void run() {
+                render(imageView);
+            }
+        };
+        Runnable overviewRedraw = new Runnable() {
+            @Override
+            public void run() {
+                clear(miniCanvas);
+                miniRender(miniCanvas);
+            }
+        };
+        Runnable histogramRedraw = new Runnable() {
+            @Override
+            public void run() {
+                updateRoiHistogram(widthSlider, heighSlider);
+                updateHistogram(histogramChart, log.isSelected(), horizonal.isSelected(), fullSizeRB.isSelected());
+                histogramChart.setThresholds(lightSlider.getLowValue(), lightSlider.getHighValue());
+            }
+        };
 
         //Обработчик изменения типа гистограммы
         log.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent arg0) {
-                pane.getChildren().clear();
-                boolean isActivate = horizonal.isSelected();
-                if(isActivate) {
-                    createHHistogram(log.isSelected(), fullSizeRB.isSelected());
-                    pane.getChildren().addAll(topLine, bottomLine, hHistogram);
-                    topLine.toFront();
-                    bottomLine.toFront();
-                } else{ 
-                    createVHistogram(log.isSelected(), fullSizeRB.isSelected());
-                    pane.getChildren().addAll(leftLine, rightLine, vHistogram);
-                    leftLine.toFront();
-                    rightLine.toFront();
-                }
+                scheduler.request(RenderScheduler.Target.HISTOGRAM, histogramRedraw);
             }
         });
         
@@ -600,23 +670,7 @@ public class App extends Application {
         horizonal.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent event) {
-                pane.getChildren().clear();
-                boolean isActivate = horizonal.isSelected();
-                if(isActivate) {
-                    createHHistogram(log.isSelected(), fullSizeRB.isSelected());
-                    pane.getChildren().addAll(topLine, bottomLine, hHistogram);
-                    topLine.toFront();
-                    bottomLine.toFront();
-                } else{ 
-                    createVHistogram(log.isSelected(), fullSizeRB.isSelected());
-                    pane.getChildren().addAll(leftLine, rightLine, vHistogram);
-                    leftLine.toFront();
-                    rightLine.toFront();
-                }
-                topLine.setVisible(isActivate);
-                bottomLine.setVisible(isActivate);
-                leftLine.setVisible(!isActivate);
-                rightLine.setVisible(!isActivate);
+                scheduler.request(RenderScheduler.Target.HISTOGRAM, histogramRedraw);
             }
         });
 
@@ -624,19 +678,7 @@ public class App extends Application {
         fullSizeRB.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent arg0) {
-                pane.getChildren().clear();
-                boolean isActivate = horizonal.isSelected();
-                if(isActivate) {
-                    createHHistogram(log.isSelected(), fullSizeRB.isSelected());
-                    pane.getChildren().addAll(topLine, bottomLine, hHistogram);
-                    topLine.toFront();
-                    bottomLine.toFront();
-                } else{ 
-                    createVHistogram(log.isSelected(), fullSizeRB.isSelected());
-                    pane.getChildren().addAll(leftLine, rightLine, vHistogram);
-                    leftLine.toFront();
-                    rightLine.toFront();
-                }
+                scheduler.request(RenderScheduler.Target.HISTOGRAM, histogramRedraw);
             }
         });
 
@@ -645,48 +687,65 @@ public class App extends Application {
             @Override
             public void changed(ObservableValue<? extends Number> number, Number oldValue, Number newValue) {
                 leftBorder.setText("Минимум: " + (fullSizeRB.isSelected() ? newValue.intValue() : (newValue.intValue() / 4)));
-                if(horizonal.isSelected()){
-                    double temp = 535 - newValue.doubleValue() * 490 / 1024;
-                    bottomLine.setStartY(temp);
-                    bottomLine.setEndY(temp);
-                } else {
-                    double temp = newValue.doubleValue() * 700 / 1024 + 79;
-                    leftLine.setStartX(temp);
-                    leftLine.setEndX(temp);
-                }
+                scheduler.request(RenderScheduler.Target.HISTOGRAM, histogramRedraw);
             }
         });
         lightSlider.highValueProperty().addListener(new ChangeListener<Number>(){
             @Override
             public void changed(ObservableValue<? extends Number> number, Number oldValue, Number newValue) {
                 rightBorder.setText("Максимум: " + (fullSizeRB.isSelected() ? newValue.intValue() : (newValue.intValue() / 4)));
-                if(horizonal.isSelected()){
-                    double temp = 535 - newValue.doubleValue() * 490 / 1024;
-                    topLine.setStartY(temp);
-                    topLine.setEndY(temp);
-                } else {
-                    double temp = newValue.doubleValue() * 700 / 1024 + 79;
-                    rightLine.setStartX(temp);
-                    rightLine.setEndX(temp);
-                }
+                scheduler.request(RenderScheduler.Target.HISTOGRAM, histogramRedraw);
             }
         });
 
         redrawButton.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent arg0) {
-                render(canvas, 
-                        LRtoAllLight.isSelected(), 
-                        toMaxRight.isSelected(),
-                        toMaxLeft.isSelected(),
-                        toZeroRight.isSelected(),
-                        toZeroRight.isSelected(),
+                TransferFunction window = TransferFunction.window(offset,
+                        LRtoAllLight.isSelected(),
+                        (int)lightSlider.getLowValue(),
+                        (int)lightSlider.getHighValue(),
+                        toMaxLeft.isSelected() ? TransferFunction.Clamp.MAX
+                                : toZeroLeft.isSelected() ? TransferFunction.Clamp.ZERO : TransferFunction.Clamp.BORDER,
+                        toMaxRight.isSelected() ? TransferFunction.Clamp.MAX
+                                : toZeroRight.isSelected() ? TransferFunction.Clamp.ZERO : TransferFunction.Clamp.BORDER);
+                imageView.setWindow(window,
                         (int)widthSlider.getLowValue(), 
                         (int)widthSlider.getHighValue(), 
-                        3000 - (int)heighSlider.getHighValue(), 
-                        3000 - (int)heighSlider.getLowValue(),  
-                        (int)lightSlider.getLowValue(),
-                        (int)lightSlider.getHighValue());
+                        roiTop(heighSlider),
+                        roiBottom(heighSlider));
+            }
+        });
+
+        //Автоконтраст: границы окна берутся из процентилей гистограммы, пиксели при этом не просматриваются
+        Runnable autoWindowApply = new Runnable() {
+            @Override
+            public void run() {
+                if(pixels == null || pixels.isEmpty()) return;
+                Histogram source = displayedHistogram();
+                if(source == null || source.getTotal() == 0) return;
+                int low = source.percentile(AUTO_LOW);
+                int high = source.percentile(AUTO_HIGH);
+                if(high <= low) {
+                    high = Math.min(low + 1, Histogram.BINS - 1);
+                    low = high - 1;
+                }
+                //Сначала нижняя граница опускается, чтобы верхняя не упиралась в нее
+                lightSlider.setLowValue(lightSlider.getMin());
+                lightSlider.setHighValue(high);
+                lightSlider.setLowValue(low);
+                //Окно автоконтраста всегда линейное, независимо от выбранного способа отображения окна
+                imageView.setWindow(TransferFunction.linearWindow(low, high),
+                        (int)widthSlider.getLowValue(),
+                        (int)widthSlider.getHighValue(),
+                        roiTop(heighSlider),
+                        roiBottom(heighSlider));
+            }
+        };
+        autoWindow.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent event) {
+                if(autoWindow.isSelected()) autoWindowApply.run();
             }
         });
 
@@ -718,23 +777,11 @@ public class App extends Application {
                 int newValue = slider.valueProperty().intValue();
                 if(offset != newValue) {
                     offset = newValue;
+                    transfer = TransferFunction.shift(offset);
                     offsetLabel.setText("Сдвиг: " + offset);
-                    render(canvas);
-                    clear(miniCanvas);
-                    miniRender(miniCanvas);
-                    pane.getChildren().clear();
-                    boolean isActivate = horizonal.isSelected();
-                    if(isActivate) {
-                        createHHistogram(log.isSelected(), fullSizeRB.isSelected());
-                        pane.getChildren().addAll(topLine, bottomLine, hHistogram);
-                        topLine.toFront();
-                        bottomLine.toFront();
-                    } else{ 
-                        createVHistogram(log.isSelected(), fullSizeRB.isSelected());
-                        pane.getChildren().addAll(leftLine, rightLine, vHistogram);
-                        leftLine.toFront();
-                        rightLine.toFront();
-                    }
+                    scheduler.request(RenderScheduler.Target.MAIN, mainRedraw);
+                    scheduler.request(RenderScheduler.Target.OVERVIEW, overviewRedraw);
+                    scheduler.request(RenderScheduler.Target.HISTOGRAM, histogramRedraw);
                 }
             }
         });
@@ -764,14 +811,14 @@ public class App extends Application {
                 if(tempPadding >= 0 && tempPadding < 3000) padding = tempPadding;
                 paddingTextField.setText("" + padding);
                 if(pixels != null) {
-                    if(pixels.length > 0) {
-                        imageHeight.setText("Высота: " + (pixels.length - padding));
-                        heighSlider.setMaxHeight(3000 - padding);
+                    if(pixels.getHeight() > 0) {
+                        imageHeight.setText("Высота: " + (pixels.getHeight() - padding));
+                        fitRoiSliders(widthSlider, heighSlider);
                     }
                 }
-                render(canvas);
-                clear(miniCanvas);
-                miniRender(miniCanvas);
+                scheduler.request(RenderScheduler.Target.MAIN, mainRedraw);
+                scheduler.request(RenderScheduler.Target.OVERVIEW, overviewRedraw);
+                scheduler.request(RenderScheduler.Target.HISTOGRAM, histogramRedraw);
             }
         });
 
@@ -781,61 +828,162 @@ public class App extends Application {
                 @Override
                 public void handle(ActionEvent actionEvent) {
                     fileImageBtnPressed();
-                    render(canvas);
-                    miniRender(miniCanvas);
-                    if(pixels != null) {
-                        if(pixels.length > 0 && pixels[0].length > 0) {
-                            imageInfoLabel.setText("Информация об изображении: ");
-                            infoText.setText("Координаты курсора: ");
-                            imageHeight.setText("Высота: " + (pixels.length - padding));
-                            imageWidth.setText("Ширина: " + pixels[0].length);
-                            heighSlider.setVisible(true);
-                            widthSlider.setVisible(true);
-                            onlyHistogramControlsBox.setVisible(true);
-                            if(horizonal.isSelected()){
-                                createHHistogram(log.isSelected(), fullSizeRB.isSelected());
-                                pane.getChildren().clear();
-                                pane.getChildren().addAll(hHistogram, topLine, bottomLine);
-                                topLine.setVisible(true);
-                                bottomLine.setVisible(true);
-                            } else {
-                                createVHistogram(log.isSelected(), fullSizeRB.isSelected());
-                                pane.getChildren().clear();
-                                pane.getChildren().addAll(vHistogram, leftLine, rightLine);
-                                leftLine.setVisible(true);
-                                rightLine.setVisible(true);
-                            }
-                        }
-                    }
                 }
             }
         );
 
+        //Кнопка открытия серии кадров
+        sequenceButton.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                sequenceBtnPressed();
+            }
+        });
+
+        //Переход по кадрам серии. При перетаскивании слайдера загружается не больше одного кадра за кадр экрана
+        frameSlider.valueProperty().addListener(new ChangeListener<Number>() {
+            @Override
+            public void changed(ObservableValue<? extends Number> number, Number oldValue, Number newValue) {
+                final int index = newValue.intValue();
+                if(index == oldValue.intValue()) return;
+                scheduler.request(RenderScheduler.Target.FRAME, new Runnable() {
+                    @Override
+                    public void run() {
+                        loadFrame(index);
+                    }
+                });
+            }
+        });
+
+        //Получение результатов фоновой загрузки.
+        //Изображение, гистограмма и обзор отображаются по мере готовности
+        //Характеристики области, выбранной слайдерами, пересчитываются при каждом их движении за O(1),
+        //а ее гистограмма обновляется по изменившимся полосам
+        InvalidationListener roiListener = new InvalidationListener() {
+            @Override
+            public void invalidated(Observable observable) {
+                if(fittingSliders) return;
+                int top = roiTop(heighSlider);
+                int bottom = roiBottom(heighSlider);
+                int left = (int)widthSlider.getLowValue();
+                int right = (int)widthSlider.getHighValue();
+                roiInfo.setText(statsText("Область", left, top + padding, right - left, bottom - top));
+                scheduler.request(RenderScheduler.Target.HISTOGRAM, histogramRedraw);
+            }
+        };
+        widthSlider.lowValueProperty().addListener(roiListener);
+        widthSlider.highValueProperty().addListener(roiListener);
+        heighSlider.lowValueProperty().addListener(roiListener);
+        heighSlider.highValueProperty().addListener(roiListener);
+        integralListener = new Runnable() {
+            @Override
+            public void run() {
+                roiListener.invalidated(null);
+            }
+        };
+        histogramListener = new Runnable() {
+            @Override
+            public void run() {
+                scheduler.request(RenderScheduler.Target.HISTOGRAM, histogramRedraw);
+                if(autoWindow.isSelected()) autoWindowApply.run();
+            }
+        };
+
+        loadListener = new ImageLoader.Listener() {
+            @Override
+            public void imageLoaded(MbvImage image) {
+                pixels = image;
+                histogram = null;
+                histogramIndex = null;
+                mipMap = null;
+                range = null;
+                integral = null;
+                rangeRequested = null;
+                integralRequested = null;
+                roiHistogram = null;
+                neighborInfo.setText("");
+                roiInfo.setText("");
+                path.setValue(loader != null ? loader.getFile().getName() : path.getValue());
+                render(imageView);
+                clear(miniCanvas);
+                miniRender(miniCanvas);
+                if(!pixels.isEmpty()) {
+                    imageInfoLabel.setText("Информация об изображении: ");
+                    infoText.setText("Координаты курсора: ");
+                    imageHeight.setText("Высота: " + (pixels.getHeight() - padding));
+                    imageWidth.setText("Ширина: " + pixels.getWidth());
+                    fitRoiSliders(widthSlider, heighSlider);
+                    heighSlider.setVisible(true);
+                    widthSlider.setVisible(true);
+                }
+            }
+
+            @Override
+            public void histogramReady(MbvImage image, Histogram ready, int readyPadding) {
+                if(pixels != image || pixels.isEmpty()) return;
+                histogram = ready;
+                histogramPadding = readyPadding;
+                onlyHistogramControlsBox.setVisible(true);
+                updateHistogram(histogramChart, log.isSelected(), horizonal.isSelected(), fullSizeRB.isSelected());
+                histogramChart.setThresholdsVisible(true);
+                if(autoWindow.isSelected()) autoWindowApply.run();
+            }
+
+            @Override
+            public void mipMapReady(MbvImage image, MipMap ready) {
+                if(pixels != image) return;
+                mipMap = ready;
+                clear(miniCanvas);
+                miniRender(miniCanvas);
+            }
+
+            @Override
+            public void histogramIndexReady(MbvImage image, HistogramIndex ready) {
+                if(pixels != image) return;
+                histogramIndex = ready;
+                roiHistogram = new RoiHistogram(ready);
+                scheduler.request(RenderScheduler.Target.HISTOGRAM, histogramRedraw);
+                if(autoWindow.isSelected()) {
+                    updateRoiHistogram(widthSlider, heighSlider);
+                    autoWindowApply.run();
+                }
+            }
+        };
+
         //Обработчик движения мышки по полотну.
         //Пока курсор находится на изображении происходит считывание координат и отображения цвета по ним.
         //Отступ учитывается.
-        canvas.setOnMouseMoved(new EventHandler<MouseEvent>(){
+        imageView.setOnMouseMoved(new EventHandler<MouseEvent>(){
             @Override
             public void handle(MouseEvent event) {
                 if(pixels != null) {
-                    int x = stopped ? stoppedX : (int)event.getX();
-                    int y = stopped ? stoppedY : (int)event.getY();
+                    final int x = stopped ? stoppedX : (int)event.getX();
+                    final int y = stopped ? stoppedY : (int)event.getY();
+                    scheduler.request(RenderScheduler.Target.MAGNIFIER, new Runnable() {
+                        @Override
+                        public void run() {
+                            probe(x, y);
+                        }
+                    });
+                }
+            }
+
+            /**
+             * Отображение яркости под курсором и увеличенного участка вокруг него
+             * @param x Координата x курсора
+             * @param y Координата y курсора
+             */
+            private void probe(int x, int y) {
+                if(pixels != null) {
                     xInfo.setText("X: " + x);
                     yInfo.setText("Y :" + (y + padding));
-                    lightInfo.setText("Яркость: " + pixels[y + padding][x]);
-                    if(x > areaSize / 2 && y > areaSize / 2 && x < (canvas.getWidth() - areaSize / 2) && y < (canvas.getHeight() - areaSize /2) && multiplierSelect.isSelected()) {
+                    lightInfo.setText("Яркость: " + pixels.get(x, y + padding));
+                    neighborInfo.setText(statsText("Окрестность", x - areaSize / 2, y + padding - areaSize / 2, areaSize, areaSize));
+                    if(x > areaSize / 2 && y > areaSize / 2 && x < (imageView.getImageWidth() - areaSize / 2) && y < (imageView.getImageHeight() - areaSize /2) && multiplierSelect.isSelected()) {
                         if(neighbor.isSelected()) {
-                            if(normalaze.isSelected()) {
-                                areaRenderNeighborNormalaze(x, y, multiplierCanvas);
-                            } else {
-                                areaRenderNeighbor(x, y, multiplierCanvas);
-                            }
+                            areaRender(x, y, multiplierCanvas, Magnifier.Mode.NEIGHBOR, normalaze.isSelected());
                         } else if(interpolation.isSelected()) {
-                            if(normalaze.isSelected()) {
-                                areaRenderInterpolationNormalize(x, y, multiplierCanvas);
-                            } else {
-                                areaRenderInterpolation(x, y, multiplierCanvas);
-                            }
+                            areaRender(x, y, multiplierCanvas, Magnifier.Mode.INTERPOLATION, normalaze.isSelected());
                         }
                     }
                 }
@@ -853,7 +1001,7 @@ public class App extends Application {
         });
 
         //Задержка выбранной области
-        canvas.setOnMouseClicked(new EventHandler<MouseEvent>() {
+        imageView.setOnMouseClicked(new EventHandler<MouseEvent>() {
             @Override
             public void handle(MouseEvent event) {
                 stopped = !stopped;
@@ -878,10 +1026,27 @@ public class App extends Application {
             }
         });
 
+        //Обработчик прокрутки основного изображения
+        //При этом отрисовываются только попавшие в видимую область плитки
+        InvalidationListener viewportListener = new InvalidationListener() {
+            @Override
+            public void invalidated(Observable observable) {
+                Bounds viewport = scrollPane.getViewportBounds();
+                Bounds content = sliderHBox.getLayoutBounds();
+                double x = scrollPane.getHvalue() * Math.max(0, content.getWidth() - viewport.getWidth());
+                double y = scrollPane.getVvalue() * Math.max(0, content.getHeight() - viewport.getHeight());
+                imageView.setViewport(x, y, viewport.getWidth(), viewport.getHeight());
+            }
+        };
+        scrollPane.hvalueProperty().addListener(viewportListener);
+        scrollPane.vvalueProperty().addListener(viewportListener);
+        scrollPane.viewportBoundsProperty().addListener(viewportListener);
+        sliderHBox.layoutBoundsProperty().addListener(viewportListener);
+
         //Блок размещения элементов на сцене
         imageInfoLabel.setMinWidth(180);
 
-        sliderHBox.getChildren().addAll(canvas, heighSlider);
+        sliderHBox.getChildren().addAll(imageView, heighSlider);
 
         neighbor.setToggleGroup(multiplierGroup);
         neighbor.setSelected(true);
@@ -919,7 +1084,7 @@ public class App extends Application {
         onlyHistogramControlsBox.setPadding(new Insets(10, 10, 10, 10));
         onlyHistogramControlsBox.setAlignment(Pos.BASELINE_RIGHT);
         onlyHistogramControlsBox.setSpacing(10);
-        onlyHistogramControlsBox.getChildren().addAll(lightSlider, leftBorder, rightBorder, horizonal, log, fullSizeRB, LRtoAllLight, leftRender, rightRender, redrawButton);
+        onlyHistogramControlsBox.getChildren().addAll(lightSlider, leftBorder, rightBorder, horizonal, log, fullSizeRB, LRtoAllLight, leftRender, rightRender, autoWindow, redrawButton);
         onlyHistogramControlsBox.managedProperty().bind(onlyHistogramControlsBox.visibleProperty());
         onlyHistogramControlsBox.setVisible(false);
 
@@ -930,11 +1095,9 @@ public class App extends Application {
         multiplierCanvasBox.managedProperty().bind(multiplierCanvasBox.visibleProperty());
         multiplierCanvasBox.setVisible(false);
 
-        pane.getChildren().addAll(leftLine, rightLine);
-
         barChartBox.setPadding(new Insets(10, 10, 10, 10));
         barChartBox.setAlignment(Pos.TOP_CENTER);
-        barChartBox.getChildren().addAll(pane);
+        barChartBox.getChildren().addAll(histogramChart);
         barChartBox.setSpacing(10);
 
         histogramControlsBox.setPadding(new Insets(10, 10, 10, 10));
@@ -971,7 +1134,7 @@ public class App extends Application {
         info.setPadding(new Insets(10, 10, 10, 10));
         info.setAlignment(Pos.BASELINE_CENTER);
         info.setSpacing(10);
-        info.getChildren().addAll(infoText, xInfo, yInfo, lightInfo);
+        info.getChildren().addAll(infoText, xInfo, yInfo, lightInfo, neighborInfo, roiInfo);
 
         paddingControls.setPadding(new Insets(10, 10, 10, 10));
         paddingControls.setAlignment(Pos.BASELINE_CENTER);
@@ -986,7 +1149,14 @@ public class App extends Application {
         loadControls.setPadding(new Insets(10, 10, 10, 10));
         loadControls.setAlignment(Pos.BASELINE_CENTER);
         loadControls.setSpacing(10);
-        loadControls.getChildren().addAll(loadButton, loadText);
+        loadProgress.setVisible(false);
+        frameSlider.setMajorTickUnit(1);
+        frameSlider.setMinorTickCount(0);
+        frameSlider.setSnapToTicks(true);
+        frameSlider.setMinWidth(300);
+        frameSlider.setVisible(false);
+        frameLabel.setVisible(false);
+        loadControls.getChildren().addAll(loadButton, sequenceButton, loadText, loadProgress, frameSlider, frameLabel);
 
         controls.setAlignment(Pos.TOP_CENTER);
         controls.getChildren().addAll(loadControls, modsControls, offsetControls, paddingControls);
@@ -1000,6 +1170,28 @@ public class App extends Application {
 
         //Настройка и отображение сцены
         scene = new Scene(border, 1500, 1000);
+
+        //Переход по кадрам серии клавишами PageUp/PageDown, Home и End
+        scene.addEventFilter(KeyEvent.KEY_PRESSED, new EventHandler<KeyEvent>() {
+            @Override
+            public void handle(KeyEvent event) {
+                if(sequence == null) return;
+                double value = frameSlider.getValue();
+                if(event.getCode() == KeyCode.PAGE_DOWN) {
+                    value++;
+                } else if(event.getCode() == KeyCode.PAGE_UP) {
+                    value--;
+                } else if(event.getCode() == KeyCode.HOME) {
+                    value = frameSlider.getMin();
+                } else if(event.getCode() == KeyCode.END) {
+                    value = frameSlider.getMax();
+                } else {
+                    return;
+                }
+                frameSlider.setValue(Math.max(frameSlider.getMin(), Math.min(frameSlider.getMax(), value)));
+                event.consume();
+            }
+        });
         stage.setScene(scene);
         stage.setTitle("Базовый обозреватель");
         stage.show();
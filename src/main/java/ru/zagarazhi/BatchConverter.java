@@ -0,0 +1,293 @@
+package ru.zagarazhi;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Класс пакетной обработки каталогов с файлами .mbv без запуска окна.
+ * Каждый файл преобразуется в восьмибитный PNG по той же таблице цветов, что и в окне,
+ * а также в уменьшенную копию и таблицу гистограммы в формате CSV.
+ * Файлы обрабатываются параллельно фиксированным числом потоков,
+ * очередь заданий ограничена, поэтому одновременно в памяти находится не больше нескольких изображений на поток.
+ * Класс запускается напрямую, а не через App: для наследников Application
+ * стандартный загрузчик запускает JavaFX еще до вызова main, что невозможно без дисплея.
+ * Запуск: java -p &lt;путь к модулям&gt; -m ru.zagarazhi/ru.zagarazhi.BatchConverter &lt;каталог&gt; &lt;каталог результатов&gt; [параметры]
+ */
+public class BatchConverter {
+
+    private static final String USAGE = "Usage: BatchConverter <input dir> <output dir> [--offset 0..8] [--window low:high | --auto]"
+            + " [--padding rows] [--thumb size] [--workers count]";
+    private static final double AUTO_LOW = 0.005; //Доля пикселей ниже окна автоконтраста
+    private static final double AUTO_HIGH = 0.995; //Доля пикселей ниже верхней границы окна автоконтраста
+
+    private final File input; //Каталог исходных файлов
+    private final File output; //Каталог результатов
+    private int offset = 2; //Сдвиг яркости
+    private int windowLow = -1, windowHigh = -1; //Окно яркостей, -1 если не задано
+    private boolean auto; //Подбирать окно по процентилям гистограммы
+    private int padding; //Количество пропускаемых строк сверху
+    private int thumbSize = 256; //Наибольшая сторона уменьшенной копии
+    private int workers = Runtime.getRuntime().availableProcessors(); //Количество потоков
+
+    /**
+     * @param input Каталог исходных файлов
+     * @param output Каталог результатов
+     */
+    public BatchConverter(File input, File output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Точка входа пакетного режима
+     * @param args Аргументы командной строки
+     */
+    public static void main(String[] args) {
+        BatchConverter converter;
+        try {
+            converter = parse(args);
+        } catch (IllegalArgumentException illegalArgumentException) {
+            System.err.println(illegalArgumentException.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        int failed = converter.run(System.out, System.err);
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Метод разбора аргументов командной строки
+     * @param args Аргументы командной строки
+     * @return Настроенный обработчик
+     */
+    public static BatchConverter parse(String[] args) {
+        List<String> list = Arrays.asList(args);
+        List<String> positional = new ArrayList<>();
+        int offset = 2, padding = 0, thumb = 256, workers = Runtime.getRuntime().availableProcessors();
+        int low = -1, high = -1;
+        boolean auto = false;
+        for(int i = 0; i < list.size(); i++) {
+            String arg = list.get(i);
+            switch(arg) {
+                case "--offset":
+                    offset = number(list, ++i, 0, 8);
+                    break;
+                case "--padding":
+                    padding = number(list, ++i, 0, Short.MAX_VALUE);
+                    break;
+                case "--thumb":
+                    thumb = number(list, ++i, 1, Short.MAX_VALUE);
+                    break;
+                case "--workers":
+                    workers = number(list, ++i, 1, 1024);
+                    break;
+                case "--auto":
+                    auto = true;
+                    break;
+                case "--window":
+                    if(++i >= list.size()) throw new IllegalArgumentException("Missing value for --window");
+                    String[] bounds = list.get(i).split(":");
+                    if(bounds.length != 2) throw new IllegalArgumentException("Invalid window " + list.get(i));
+                    low = number(bounds[0], 0, TransferFunction.MASK);
+                    high = number(bounds[1], 0, TransferFunction.MASK);
+                    if(high <= low) throw new IllegalArgumentException("Invalid window " + list.get(i));
+                    break;
+                default:
+                    if(arg.startsWith("--")) throw new IllegalArgumentException("Unknown option " + arg);
+                    positional.add(arg);
+            }
+        }
+        if(positional.size() != 2) throw new IllegalArgumentException("Input and output directories are required");
+        BatchConverter converter = new BatchConverter(new File(positional.get(0)), new File(positional.get(1)));
+        converter.offset = offset;
+        converter.padding = padding;
+        converter.thumbSize = thumb;
+        converter.workers = workers;
+        converter.windowLow = low;
+        converter.windowHigh = high;
+        converter.auto = auto;
+        return converter;
+    }
+
+    private static int number(List<String> list, int index, int min, int max) {
+        if(index >= list.size()) throw new IllegalArgumentException("Missing value for " + list.get(index - 1));
+        return number(list.get(index), min, max);
+    }
+
+    private static int number(String value, int min, int max) {
+        int result;
+        try {
+            result = Integer.parseInt(value);
+        } catch (NumberFormatException numberFormatException) {
+            throw new IllegalArgumentException("Invalid number " + value);
+        }
+        if(result < min || result > max) throw new IllegalArgumentException("Value " + value + " is out of range");
+        return result;
+    }
+
+    /**
+     * Метод обработки всех файлов .mbv каталога
+     * @param out Поток сообщений об обработанных файлах
+     * @param err Поток сообщений об ошибках
+     * @return Количество файлов, которые не удалось обработать
+     */
+    public int run(PrintStream out, PrintStream err) {
+        File[] files = input.listFiles();
+        if(files == null) {
+            err.println("Not a directory: " + input);
+            return 1;
+        }
+        if(!output.isDirectory() && !output.mkdirs()) {
+            err.println("Cannot create " + output);
+            return 1;
+        }
+        Arrays.sort(files);
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.nanoTime();
+        //Очередь ограничена: когда она заполнена, файл обрабатывает поток, который ставит задания
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(workers), new ThreadPoolExecutor.CallerRunsPolicy());
+        for(File file : files) {
+            if(!file.isFile() || !file.getName().toLowerCase().endsWith(".mbv")) continue;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        convert(file);
+                        done.incrementAndGet();
+                        out.println(file.getName());
+                    } catch (IOException | RuntimeException exception) {
+                        failed.incrementAndGet();
+                        err.println(file.getName() + ": " + exception.getMessage());
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        out.printf("Converted %d, failed %d in %.1f s%n", done.get(), failed.get(), (System.nanoTime() - start) / 1e9);
+        return failed.get();
+    }
+
+    /**
+     * Метод обработки одного файла
+     * @param file Файл .mbv
+     * @throws IOException Если файл не удалось прочитать или записать результаты
+     */
+    public void convert(File file) throws IOException {
+        //Пропускаемые строки сверху из файла не читаются
+        MBVFileReader.Header header = MBVFileReader.probe(file);
+        int top = Math.min(padding, header.getHeight());
+        MbvImage image = MBVFileReader.readRegion(file, 0, top, header.getWidth(), header.getHeight() - top, 1);
+        int height = image.getHeight();
+        String name = file.getName().substring(0, file.getName().length() - 4);
+
+        int[] counts = new int[Histogram.BINS];
+        Histogram.count(image, 0, height, counts);
+        Histogram histogram = new Histogram(counts);
+        int[] lut = transfer(histogram).getTable();
+
+        //Полное изображение; без окна яркости преобразуются сдвигом без таблицы
+        if(image.getWidth() > 0 && height > 0) {
+            BufferedImage full = windowLow < 0 && !auto ? gray(image, offset, 0, image.getWidth(), height)
+                    : gray(image, lut, 0, image.getWidth(), height);
+            ImageIO.write(full, "png", new File(output, name + ".png"));
+            //Уменьшенная копия из пирамиды
+            int step = Math.max(1, (Math.max(image.getWidth(), height) + thumbSize - 1) / thumbSize);
+            MipMap mipMap = MipMap.build(image);
+            int thumbWidth = Math.max(1, image.getWidth() / step);
+            int thumbHeight = Math.max(1, height / step);
+            int[] argb = new int[thumbWidth * thumbHeight];
+            mipMap.render(lut, 0, 0, step, step, thumbWidth, thumbHeight, argb, 0, thumbWidth);
+            ImageIO.write(gray(argb, thumbWidth, thumbHeight), "png", new File(output, name + ".thumb.png"));
+        }
+
+        //Гистограмма
+        try (BufferedWriter writer = Files.newBufferedWriter(new File(output, name + ".csv").toPath(), StandardCharsets.UTF_8)) {
+            writer.write("light,count");
+            writer.newLine();
+            for(int i = 0; i < Histogram.BINS; i++) {
+                writer.write(i + "," + counts[i]);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Таблица цветов файла: сдвиг или линейное окно, заданное либо подобранное по процентилям.
+     * Сдвиг на окно не влияет
+     * @param histogram Гистограмма файла
+     * @return Таблица цветов
+     */
+    private TransferFunction transfer(Histogram histogram) {
+        int low = windowLow, high = windowHigh;
+        if(auto && histogram.getTotal() > 0) {
+            low = histogram.percentile(AUTO_LOW);
+            high = Math.max(histogram.percentile(AUTO_HIGH), low + 1);
+        }
+        if(low < 0) return TransferFunction.shift(offset);
+        return TransferFunction.linearWindow(low, high);
+    }
+
+    /**
+     * Восьмибитное изображение строк, начиная с y, по таблице цветов
+     */
+    private static BufferedImage gray(MbvImage image, int[] lut, int y, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte)result.getRaster().getDataBuffer()).getData();
+        short[] data = image.getData();
+        for(int i = 0; i < height; i++) {
+            int row = image.offset(y + i);
+            int position = i * width;
+            for(int j = 0; j < width; j++) {
+                pixels[position + j] = (byte)lut[data[row + j]];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Восьмибитное изображение строк, начиная с y, сдвигом яркостей
+     */
+    private static BufferedImage gray(MbvImage image, int offset, int y, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte)result.getRaster().getDataBuffer()).getData();
+        for(int i = 0; i < height; i++) {
+            Kernels.shiftToGray(image.getData(), image.offset(y + i), pixels, i * width, width, offset);
+        }
+        return result;
+    }
+
+    /**
+     * Восьмибитное изображение из серых цветов INT_ARGB
+     */
+    private static BufferedImage gray(int[] argb, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte)result.getRaster().getDataBuffer()).getData();
+        for(int i = 0; i < width * height; i++) {
+            pixels[i] = (byte)argb[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,58 @@
+package ru.zagarazhi;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+
+/**
+ * Класс буфера кадра в формате INT_ARGB.
+ * Изображение сначала полностью записывается в массив, а затем одним вызовом передается в полотно.
+ * Массив переиспользуется между перерисовками и пересоздается только при нехватке места.
+ */
+public class FrameBuffer {
+
+    private int width; //Ширина кадра
+    private int height; //Высота кадра
+    private int[] data = new int[0]; //Цвета пикселей построчно
+
+    /**
+     * Метод изменения размеров кадра
+     * @param width Новая ширина
+     * @param height Новая высота
+     */
+    public void resize(int width, int height) {
+        if(width < 0 || height < 0) throw new IllegalArgumentException("Invalid frame bounderies");
+        int size = width * height;
+        if(data.length < size) data = new int[size];
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Прямой доступ к массиву цветов.
+     * Индекс пикселя (x, y) равен y * getWidth() + x, длина массива может превышать размер кадра.
+     * @return Массив цветов в формате INT_ARGB
+     */
+    public int[] getData() {
+        return data;
+    }
+
+    /**
+     * Метод передачи кадра в полотно одним вызовом
+     * Альфа-канал всегда 0xFF, поэтому формат с предумноженной альфой совпадает с обычным.
+     * @param pixelWriter Объект записи пикселей полотна
+     * @param x Координата x левого верхнего угла кадра на полотне
+     * @param y Координата y левого верхнего угла кадра на полотне
+     */
+    public void blit(PixelWriter pixelWriter, int x, int y) {
+        if(width == 0 || height == 0) return;
+        pixelWriter.setPixels(x, y, width, height, PixelFormat.getIntArgbPreInstance(), data, 0, width);
+    }
+}
@@ -0,0 +1,361 @@
+package ru.zagarazhi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Класс серии кадров - упорядоченного набора файлов .mbv одного каталога.
+ * Декодированные кадры хранятся в кэше, ограниченном по объему памяти, и вытесняются по давности обращения.
+ * Соседние с текущим кадры заранее декодируются в фоновых потоках в направлении просмотра,
+ * поэтому при последовательном переходе по кадрам файлы, как правило, уже прочитаны.
+ * Вместе с кадром хранятся его гистограмма и пирамида уменьшенных копий, если они уже построены,
+ * поэтому при возврате к кадру они не строятся заново.
+ * Если в каталоге сохранен индекс {@link MbvIndex}, размеры, диапазон яркостей и миниатюры кадров
+ * берутся из него без чтения файлов, а файлы, записанные в индексе как поврежденные, в серию не входят.
+ * Методы можно вызывать из любых потоков.
+ */
+public class FrameSequence {
+
+    private static final int DECODERS = 2; //Количество потоков предварительного чтения
+
+    /**
+     * Порядок имен, в котором числа сравниваются по значению: frame_2 идет раньше frame_10
+     */
+    private static final Comparator<File> NATURAL_ORDER = new Comparator<File>() {
+        @Override
+        public int compare(File first, File second) {
+            String a = first.getName(), b = second.getName();
+            int i = 0, j = 0;
+            while(i < a.length() && j < b.length()) {
+                char x = a.charAt(i), y = b.charAt(j);
+                if(Character.isDigit(x) && Character.isDigit(y)) {
+                    int startA = i, startB = j;
+                    while(i < a.length() && Character.isDigit(a.charAt(i))) i++;
+                    while(j < b.length() && Character.isDigit(b.charAt(j))) j++;
+                    String numberA = a.substring(startA, i).replaceFirst("^0+(?=.)", "");
+                    String numberB = b.substring(startB, j).replaceFirst("^0+(?=.)", "");
+                    if(numberA.length() != numberB.length()) return numberA.length() - numberB.length();
+                    int result = numberA.compareTo(numberB);
+                    if(result != 0) return result;
+                } else {
+                    if(x != y) return x - y;
+                    i++;
+                    j++;
+                }
+            }
+            return (a.length() - i) - (b.length() - j);
+        }
+    };
+
+    private final List<File> files; //Файлы кадров по порядку
+    private final List<MbvIndex.Entry> entries; //Записи индекса о кадрах или null, если записи нет
+    private final long maxBytes; //Наибольший объем декодированных кадров в кэше
+    private final int prefetch; //Количество кадров, читаемых заранее в направлении просмотра
+    private final LinkedHashMap<Integer, Frame> cache = new LinkedHashMap<>(16, 0.75f, true); //Кэш кадров
+    private final Map<Integer, Future<MbvImage>> pending = new HashMap<>(); //Кадры, которые сейчас читаются
+    private final ExecutorService decoders; //Потоки предварительного чтения
+    private long cachedBytes; //Объем кадров в кэше
+    private int current; //Последний запрошенный кадр
+
+    /**
+     * @param files Файлы кадров по порядку
+     * @param maxBytes Наибольший объем декодированных кадров в кэше
+     * @param prefetch Количество кадров, читаемых заранее
+     */
+    public FrameSequence(List<File> files, long maxBytes, int prefetch) {
+        this(files, Collections.<MbvIndex.Entry>nCopies(files.size(), null), maxBytes, prefetch);
+    }
+
+    /**
+     * @param files Файлы кадров по порядку
+     * @param entries Записи индекса о кадрах в том же порядке; null, если записи нет
+     * @param maxBytes Наибольший объем декодированных кадров в кэше
+     * @param prefetch Количество кадров, читаемых заранее
+     */
+    private FrameSequence(List<File> files, List<MbvIndex.Entry> entries, long maxBytes, int prefetch) {
+        if(files.isEmpty()) throw new IllegalArgumentException("Sequence has no frames");
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        this.maxBytes = maxBytes;
+        this.prefetch = prefetch;
+        this.decoders = Executors.newFixedThreadPool(DECODERS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "frame-prefetch");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Метод открытия серии из всех файлов .mbv каталога
+     * @param directory Каталог
+     * @param maxBytes Наибольший объем декодированных кадров в кэше
+     * @param prefetch Количество кадров, читаемых заранее
+     * @return Серия кадров
+     * @throws IOException Если в каталоге нет файлов .mbv
+     */
+    public static FrameSequence open(File directory, long maxBytes, int prefetch) throws IOException {
+        return open(directory, "*.mbv", maxBytes, prefetch);
+    }
+
+    /**
+     * Метод открытия серии из файлов каталога, подходящих под шаблон.
+     * Сохраненный индекс каталога только читается: файлы при открытии не обрабатываются
+     * @param directory Каталог
+     * @param glob Шаблон имени файла, например frame_*.mbv
+     * @param maxBytes Наибольший объем декодированных кадров в кэше
+     * @param prefetch Количество кадров, читаемых заранее
+     * @return Серия кадров
+     * @throws IOException Если подходящих файлов нет
+     */
+    public static FrameSequence open(File directory, String glob, long maxBytes, int prefetch) throws IOException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        File[] list = directory.listFiles();
+        if(list == null) throw new IOException("Not a directory");
+        Map<String, MbvIndex.Entry> indexed = new HashMap<>();
+        for(MbvIndex.Entry entry : MbvIndex.read(directory).getEntries()) {
+            indexed.put(entry.getName(), entry);
+        }
+        List<File> files = new ArrayList<>();
+        for(File file : list) {
+            if(!file.isFile() || !matcher.matches(file.toPath().getFileName())) continue;
+            MbvIndex.Entry entry = indexed.get(file.getName());
+            //Файл, который не удалось прочитать при индексации и который с тех пор не менялся, пропускается
+            if(entry != null && entry.isFailed() && entry.matches(file)) continue;
+            files.add(file);
+        }
+        if(files.isEmpty()) throw new IOException("No .mbv files");
+        Collections.sort(files, NATURAL_ORDER);
+        List<MbvIndex.Entry> entries = new ArrayList<>();
+        for(File file : files) {
+            MbvIndex.Entry entry = indexed.get(file.getName());
+            entries.add(entry != null && entry.matches(file) ? entry : null);
+        }
+        return new FrameSequence(files, entries, maxBytes, prefetch);
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * @param index Номер кадра
+     * @return Файл кадра
+     */
+    public File getFile(int index) {
+        return files.get(index);
+    }
+
+    /**
+     * @param index Номер кадра
+     * @return Запись индекса о кадре или null, если кадр не проиндексирован или файл с тех пор изменился
+     */
+    public MbvIndex.Entry getEntry(int index) {
+        return entries.get(index);
+    }
+
+    /**
+     * Метод получения кадра. Кадр берется из кэша, дожидается уже начатого чтения или читается в текущем потоке.
+     * После этого заранее читаются следующие кадры в направлении просмотра
+     * @param index Номер кадра
+     * @return Декодированный кадр
+     * @throws IOException Если файл не удалось прочитать
+     * @throws InterruptedException Если поток прерван во время ожидания
+     */
+    public MbvImage get(int index) throws IOException, InterruptedException {
+        int direction;
+        MbvImage image;
+        Future<MbvImage> future;
+        synchronized(this) {
+            direction = index >= current ? 1 : -1;
+            current = index;
+            Frame cached = cache.get(index);
+            image = cached == null ? null : cached.image;
+            future = image == null ? pending.get(index) : null;
+        }
+        if(image == null) {
+            if(future != null) {
+                try {
+                    image = future.get();
+                } catch (ExecutionException executionException) {
+                    if(executionException.getCause() instanceof IOException) throw (IOException)executionException.getCause();
+                    throw new IOException(executionException.getCause());
+                } catch (CancellationException cancellationException) {
+                    image = null;
+                }
+            }
+            if(image == null) {
+                image = MBVFileReader.readMapped(files.get(index));
+                store(index, image);
+            }
+        }
+        prefetch(index, direction);
+        return image;
+    }
+
+    /**
+     * @param index Номер кадра
+     * @return Кадр из кэша или null
+     */
+    public synchronized MbvImage getIfCached(int index) {
+        Frame frame = cache.get(index);
+        return frame == null ? null : frame.image;
+    }
+
+    /**
+     * @param index Номер кадра
+     * @param padding Отступ, с которым нужна гистограмма
+     * @return Гистограмма кадра из кэша или null
+     */
+    public synchronized Histogram getHistogram(int index, int padding) {
+        Frame frame = cache.get(index);
+        if(frame == null || frame.histogram == null || frame.histogramPadding != padding) return null;
+        return frame.histogram;
+    }
+
+    /**
+     * Метод сохранения гистограммы вместе с кадром. Если кадр уже вытеснен из кэша, гистограмма не сохраняется
+     * @param index Номер кадра
+     * @param image Кадр, для которого построена гистограмма
+     * @param histogram Гистограмма
+     * @param padding Отступ, с которым построена гистограмма
+     */
+    public synchronized void putHistogram(int index, MbvImage image, Histogram histogram, int padding) {
+        Frame frame = cache.get(index);
+        if(frame == null || frame.image != image) return;
+        frame.histogram = histogram;
+        frame.histogramPadding = padding;
+    }
+
+    /**
+     * @param index Номер кадра
+     * @return Пирамида уменьшенных копий кадра из кэша или null
+     */
+    public synchronized MipMap getMipMap(int index) {
+        Frame frame = cache.get(index);
+        return frame == null ? null : frame.mipMap;
+    }
+
+    /**
+     * Метод сохранения пирамиды вместе с кадром. Объем пирамиды учитывается в объеме кэша
+     * @param index Номер кадра
+     * @param image Кадр, для которого построена пирамида
+     * @param mipMap Пирамида уменьшенных копий
+     */
+    public synchronized void putMipMap(int index, MbvImage image, MipMap mipMap) {
+        Frame frame = cache.get(index);
+        if(frame == null || frame.image != image || frame.mipMap != null) return;
+        frame.mipMap = mipMap;
+        cachedBytes += mipMap.bytes();
+        evict(index);
+    }
+
+    /**
+     * Метод остановки фоновых потоков и очистки кэша
+     */
+    public synchronized void close() {
+        decoders.shutdownNow();
+        pending.clear();
+        cache.clear();
+        cachedBytes = 0;
+    }
+
+    /**
+     * Метод планирования предварительного чтения.
+     * Сначала читаются кадры в направлении просмотра, затем один кадр в обратном.
+     * Чтение кадров, ушедших далеко от текущего, отменяется
+     */
+    private synchronized void prefetch(int index, int direction) {
+        Iterator<Map.Entry<Integer, Future<MbvImage>>> iterator = pending.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<Integer, Future<MbvImage>> entry = iterator.next();
+            if(Math.abs(entry.getKey() - index) > prefetch) {
+                entry.getValue().cancel(true);
+                iterator.remove();
+            }
+        }
+        for(int n = 1; n <= prefetch; n++) {
+            schedule(index + direction * n);
+        }
+        schedule(index - direction);
+    }
+
+    private void schedule(final int index) {
+        if(index < 0 || index >= files.size() || cache.containsKey(index) || pending.containsKey(index)) return;
+        if(decoders.isShutdown()) return;
+        pending.put(index, decoders.submit(new Callable<MbvImage>() {
+            @Override
+            public MbvImage call() throws Exception {
+                MbvImage image = MBVFileReader.readMapped(files.get(index));
+                store(index, image);
+                return image;
+            }
+        }));
+    }
+
+    /**
+     * Метод добавления кадра в кэш с вытеснением давно не использованных кадров.
+     * Текущий кадр не вытесняется
+     */
+    private synchronized void store(int index, MbvImage image) {
+        pending.remove(index);
+        if(cache.containsKey(index)) return;
+        Frame frame = new Frame(image);
+        cache.put(index, frame);
+        cachedBytes += frame.bytes();
+        evict(index);
+    }
+
+    /**
+     * Метод вытеснения давно не использованных кадров, пока объем кэша превышает допустимый.
+     * Текущий и только что добавленный кадры не вытесняются
+     */
+    private void evict(int index) {
+        Iterator<Map.Entry<Integer, Frame>> iterator = cache.entrySet().iterator();
+        while(cachedBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Integer, Frame> entry = iterator.next();
+            if(entry.getKey() == current || entry.getKey() == index) continue;
+            cachedBytes -= entry.getValue().bytes();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Класс кадра в кэше вместе с уже построенными по нему данными
+     */
+    private static class Frame {
+
+        private final MbvImage image; //Декодированный кадр
+        private Histogram histogram; //Гистограмма или null
+        private int histogramPadding; //Отступ, с которым построена гистограмма
+        private MipMap mipMap; //Пирамида уменьшенных копий или null
+
+        Frame(MbvImage image) {
+            this.image = image;
+        }
+
+        long bytes() {
+            return 2L * image.getData().length + (mipMap == null ? 0 : mipMap.bytes());
+        }
+    }
+}
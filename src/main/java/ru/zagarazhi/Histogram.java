@@ -0,0 +1,149 @@
+package ru.zagarazhi;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Класс гистограммы яркостей изображения.
+ * Полная гистограмма из 1024 столбцов строится один раз за проход по изображению,
+ * а все остальные представления получаются из нее без обращения к пикселям.
+ */
+public class Histogram {
+
+    public static final int BINS = TransferFunction.SIZE; //Количество столбцов полной гистограммы
+    private static final int BAND_ROWS = 64; //Минимальное количество строк в одной полосе
+
+    private final int[] counts; //Количество пикселей каждой яркости
+    private final long total; //Общее количество пикселей
+
+    /**
+     * @param counts Количество пикселей каждой яркости, массив из 1024 элементов
+     */
+    public Histogram(int[] counts) {
+        if(counts.length != BINS) throw new IllegalArgumentException("Histogram must have " + BINS + " bins");
+        this.counts = counts;
+        long sum = 0;
+        for(int count : counts) sum += count;
+        this.total = sum;
+    }
+
+    /**
+     * Метод построения гистограммы по строкам изображения.
+     * Полосы строк обрабатываются параллельно, каждая в свою частичную гистограмму,
+     * которые затем складываются
+     * @param image Изображение
+     * @param fromRow Первая учитываемая строка
+     * @param toRow Строка, следующая за последней учитываемой
+     * @return Гистограмма
+     */
+    public static Histogram of(MbvImage image, int fromRow, int toRow) {
+        if(toRow <= fromRow) return new Histogram(new int[BINS]);
+        return new Histogram(RenderEngine.getDefault().getPool().invoke(new CountTask(image, fromRow, toRow)));
+    }
+
+    /**
+     * Метод подсчета яркостей полосы строк в одном потоке
+     * @param image Изображение
+     * @param fromRow Первая учитываемая строка
+     * @param toRow Строка, следующая за последней учитываемой
+     * @param counts Массив, к которому прибавляются количества
+     */
+    public static void count(MbvImage image, int fromRow, int toRow, int[] counts) {
+        short[] data = image.getData();
+        int width = image.getWidth();
+        for(int i = fromRow; i < toRow; i++) {
+            int row = image.offset(i);
+            for(int j = 0; j < width; j++) {
+                counts[data[row + j]]++;
+            }
+        }
+    }
+
+    /**
+     * Прямой доступ к полной гистограмме
+     * @return Массив из 1024 элементов
+     */
+    public int[] getCounts() {
+        return counts;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Гистограмма восьмибитных яркостей, получаемых после сдвига
+     * @param offset Количество бит, на которое сдвигается яркость
+     * @return Массив из 256 элементов
+     */
+    public int[] shifted(int offset) {
+        int[] result = new int[256];
+        for(int i = 0; i < BINS; i++) {
+            result[(i >>> offset) & 0xFF] += counts[i];
+        }
+        return result;
+    }
+
+    /**
+     * Гистограмма, в которой соседние столбцы объединены в группы
+     * @param group Количество объединяемых столбцов
+     * @return Массив из 1024 / group элементов
+     */
+    public int[] grouped(int group) {
+        int[] result = new int[BINS / group];
+        for(int i = 0; i < result.length * group; i++) {
+            result[i / group] += counts[i];
+        }
+        return result;
+    }
+
+    /**
+     * Яркость, ниже или равной которой является заданная доля пикселей.
+     * Вычисляется одним проходом по накопленным количествам
+     * @param fraction Доля пикселей от 0 до 1
+     * @return Наименьшая яркость, накопленное количество для которой не меньше fraction * total
+     */
+    public int percentile(double fraction) {
+        long target = (long)Math.ceil(fraction * total);
+        long cumulative = 0;
+        for(int i = 0; i < BINS; i++) {
+            cumulative += counts[i];
+            if(cumulative >= target && cumulative > 0) return i;
+        }
+        return BINS - 1;
+    }
+
+    /**
+     * Задача подсчета яркостей полосы строк. Слишком большие полосы делятся пополам
+     */
+    private static class CountTask extends RecursiveTask<int[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MbvImage image;
+        private final int fromRow, toRow;
+
+        CountTask(MbvImage image, int fromRow, int toRow) {
+            this.image = image;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected int[] compute() {
+            if(toRow - fromRow <= BAND_ROWS) {
+                int[] partial = new int[BINS];
+                count(image, fromRow, toRow, partial);
+                return partial;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            CountTask top = new CountTask(image, fromRow, middle);
+            top.fork();
+            int[] result = new CountTask(image, middle, toRow).compute();
+            int[] partial = top.join();
+            for(int i = 0; i < BINS; i++) {
+                result[i] += partial[i];
+            }
+            return result;
+        }
+    }
+}
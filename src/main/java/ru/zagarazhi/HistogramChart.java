@@ -0,0 +1,274 @@
+package ru.zagarazhi;
+
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.TextAlignment;
+
+/**
+ * Класс гистограммы, рисуемой напрямую на полотне.
+ * Столбцы строятся из массива количеств без создания узлов сцены,
+ * поэтому перерисовка занимает доли миллисекунды при любом количестве столбцов.
+ * Поддерживаются линейная и логарифмическая шкалы, вертикальное и горизонтальное представление,
+ * а также линии границ окна яркостей, задаваемые в значениях яркости.
+ */
+public class HistogramChart extends Pane {
+
+    private static final double LEFT = 70; //Отступ области построения слева
+    private static final double RIGHT = 20; //Отступ области построения справа
+    private static final double TOP = 40; //Отступ области построения сверху
+    private static final double BOTTOM = 45; //Отступ области построения снизу
+    private static final int TICKS = 4; //Количество делений линейной шкалы
+    private static final double RANGE = TransferFunction.SIZE; //Диапазон яркостей, занимаемый столбцами
+
+    private final Canvas canvas = new Canvas(); //Полотно гистограммы
+    private int[] bins = new int[0]; //Количество пикселей в каждом столбце
+    private int labelRange = TransferFunction.SIZE; //Подпись конца оси яркостей
+    private boolean logarithmic; //Логарифмическая шкала количества
+    private boolean horizontal; //Горизонтальное представление
+    private boolean thresholdsVisible; //Нужно ли рисовать границы окна
+    private double low, high = TransferFunction.SIZE - 1; //Границы окна яркостей
+    private double[] logTicks = new double[0]; //Деления логарифмической шкалы для logTicksMax
+    private int logTicksMax; //Наибольшее количество, для которого посчитаны деления
+
+    public HistogramChart() {
+        getChildren().add(canvas);
+    }
+
+    /**
+     * Метод смены данных гистограммы.
+     * Столбцы равномерно занимают весь диапазон яркостей [0;1024)
+     * @param bins Количество пикселей в каждом столбце
+     * @param labelRange Значение, подписываемое в конце оси яркостей
+     */
+    public void setData(int[] bins, int labelRange) {
+        this.bins = bins;
+        this.labelRange = labelRange;
+        draw();
+    }
+
+    public void setLogarithmic(boolean logarithmic) {
+        this.logarithmic = logarithmic;
+        draw();
+    }
+
+    /**
+     * Метод смены представления.
+     * Вертикальная гистограмма имеет размер 800x500, горизонтальная - 400x600
+     * @param horizontal Нужно ли горизонтальное представление
+     */
+    public void setHorizontal(boolean horizontal) {
+        this.horizontal = horizontal;
+        double width = horizontal ? 400 : 800;
+        double height = horizontal ? 600 : 500;
+        setMinSize(width, height);
+        setPrefSize(width, height);
+        canvas.setWidth(width);
+        canvas.setHeight(height);
+        draw();
+    }
+
+    /**
+     * Метод установки границ окна яркостей
+     * @param low Нижняя граница
+     * @param high Верхняя граница
+     */
+    public void setThresholds(double low, double high) {
+        this.low = low;
+        this.high = high;
+        draw();
+    }
+
+    public void setThresholdsVisible(boolean thresholdsVisible) {
+        this.thresholdsVisible = thresholdsVisible;
+        draw();
+    }
+
+    /**
+     * Положение значения яркости вдоль оси яркостей в координатах полотна
+     * @param light Яркость
+     * @return Координата x для вертикальной гистограммы или y для горизонтальной
+     */
+    public double lightToDisplay(double light) {
+        double fraction = light / RANGE;
+        if(horizontal) {
+            return canvas.getHeight() - BOTTOM - fraction * plotLength();
+        }
+        return LEFT + fraction * plotLength();
+    }
+
+    /**
+     * Длина оси яркостей в пикселях
+     */
+    private double plotLength() {
+        return horizontal ? canvas.getHeight() - TOP - BOTTOM : canvas.getWidth() - LEFT - RIGHT;
+    }
+
+    /**
+     * Длина оси количества в пикселях
+     */
+    private double plotDepth() {
+        return horizontal ? canvas.getWidth() - LEFT - RIGHT : canvas.getHeight() - TOP - BOTTOM;
+    }
+
+    /**
+     * Доля оси количества, занимаемая столбцом
+     * @param count Количество пикселей
+     * @param max Наибольшее количество
+     * @param logMax Логарифм наибольшего количества
+     */
+    private double scale(int count, int max, double logMax) {
+        if(count <= 0 || max <= 0) return 0;
+        if(logarithmic) return logMax > 0 ? Math.log10(count + 1) / logMax : 1;
+        return (double)count / max;
+    }
+
+    /**
+     * Метод перерисовки гистограммы
+     */
+    private void draw() {
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, width, height);
+        if(width == 0 || height == 0) return;
+
+        int max = 0;
+        for(int count : bins) {
+            if(count > max) max = count;
+        }
+        double logMax = Math.log10(max + 1);
+        double length = plotLength();
+        double depth = plotDepth();
+        double barLength = bins.length > 0 ? length / bins.length : 0;
+
+        //Заголовок
+        gc.setFill(Color.BLACK);
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.CENTER);
+        gc.fillText("Количество пикселей", width / 2, TOP / 2);
+
+        //Столбцы
+        gc.setFill(Color.web("#f3622d"));
+        for(int i = 0; i < bins.length; i++) {
+            double size = scale(bins[i], max, logMax) * depth;
+            if(size <= 0) continue;
+            if(horizontal) {
+                double y = height - BOTTOM - (i + 1) * barLength;
+                gc.fillRect(LEFT, y, size, barLength);
+            } else {
+                double x = LEFT + i * barLength;
+                gc.fillRect(x, TOP + depth - size, barLength, size);
+            }
+        }
+
+        //Оси
+        gc.setStroke(Color.GRAY);
+        gc.setLineWidth(1);
+        gc.strokeLine(LEFT, TOP, LEFT, height - BOTTOM);
+        gc.strokeLine(LEFT, height - BOTTOM, width - RIGHT, height - BOTTOM);
+
+        //Деления оси яркостей
+        gc.setFill(Color.BLACK);
+        for(int i = 0; i <= TICKS; i++) {
+            double position = lightToDisplay(RANGE * i / TICKS);
+            String label = "" + (labelRange * i / TICKS);
+            if(horizontal) {
+                gc.setTextAlign(TextAlignment.RIGHT);
+                gc.fillText(label, LEFT - 5, position);
+            } else {
+                gc.setTextAlign(TextAlignment.CENTER);
+                gc.fillText(label, position, height - BOTTOM + 10);
+            }
+        }
+
+        //Деления оси количества
+        if(max > 0) {
+            if(logarithmic) {
+                //Деления пересчитываются только при смене наибольшего количества, подписываются степени десяти
+                if(logTicksMax != max) {
+                    logTicks = LogarithmicTicks.computeTickValues(1, max);
+                    logTicksMax = max;
+                }
+                for(double value : logTicks) {
+                    double offset = Math.log10(value + 1) / logMax * depth;
+                    long power = Math.round(Math.pow(10, Math.floor(Math.log10(value))));
+                    if(value == power) {
+                        drawCountTick(gc, offset, "" + power);
+                    } else {
+                        drawCountMark(gc, offset);
+                    }
+                }
+            } else {
+                for(int i = 0; i <= TICKS; i++) {
+                    drawCountTick(gc, depth * i / TICKS, "" + ((long)max * i / TICKS));
+                }
+            }
+        }
+
+        gc.setTextAlign(TextAlignment.CENTER);
+        if(horizontal) {
+            gc.fillText("Количество", LEFT + depth / 2, height - BOTTOM / 3);
+            gc.save();
+            gc.translate(LEFT / 4, TOP + length / 2);
+            gc.rotate(-90);
+            gc.fillText("Яркости", 0, 0);
+            gc.restore();
+        } else {
+            gc.fillText("Яркости", LEFT + length / 2, height - BOTTOM / 3);
+            gc.save();
+            gc.translate(LEFT / 4, TOP + depth / 2);
+            gc.rotate(-90);
+            gc.fillText("Количество", 0, 0);
+            gc.restore();
+        }
+
+        //Границы окна яркостей
+        if(thresholdsVisible) {
+            gc.setStroke(Color.BLACK);
+            double lowPosition = lightToDisplay(low);
+            double highPosition = lightToDisplay(high);
+            if(horizontal) {
+                gc.strokeLine(LEFT, lowPosition, width - RIGHT, lowPosition);
+                gc.strokeLine(LEFT, highPosition, width - RIGHT, highPosition);
+            } else {
+                gc.strokeLine(lowPosition, TOP, lowPosition, height - BOTTOM);
+                gc.strokeLine(highPosition, TOP, highPosition, height - BOTTOM);
+            }
+        }
+    }
+
+    /**
+     * Метод отрисовки деления оси количества без подписи
+     * @param gc Контекст полотна
+     * @param offset Расстояние от начала оси в пикселях
+     */
+    private void drawCountMark(GraphicsContext gc, double offset) {
+        double height = canvas.getHeight();
+        gc.setStroke(Color.GRAY);
+        if(horizontal) {
+            gc.strokeLine(LEFT + offset, height - BOTTOM, LEFT + offset, height - BOTTOM + 4);
+        } else {
+            gc.strokeLine(LEFT - 4, TOP + plotDepth() - offset, LEFT, TOP + plotDepth() - offset);
+        }
+    }
+
+    /**
+     * Метод отрисовки деления оси количества
+     * @param gc Контекст полотна
+     * @param offset Расстояние от начала оси в пикселях
+     * @param label Подпись деления
+     */
+    private void drawCountTick(GraphicsContext gc, double offset, String label) {
+        double height = canvas.getHeight();
+        if(horizontal) {
+            gc.setTextAlign(TextAlignment.CENTER);
+            gc.fillText(label, LEFT + offset, height - BOTTOM + 10);
+        } else {
+            gc.setTextAlign(TextAlignment.RIGHT);
+            gc.fillText(label, LEFT - 5, TOP + plotDepth() - offset);
+        }
+    }
+}
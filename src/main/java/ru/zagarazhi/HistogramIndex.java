@@ -0,0 +1,169 @@
+package ru.zagarazhi;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Класс индекса гистограмм прямоугольных областей изображения.
+ * Изображение делится на блоки BLOCK x BLOCK, и для каждого узла сетки блоков хранится
+ * накопленная гистограмма всех блоков выше и левее него.
+ * Гистограмма выровненной по блокам части области получается из четырех накопленных гистограмм за O(1024),
+ * а пиксели по краям области, не попавшие в целые блоки, просматриваются напрямую.
+ */
+public class HistogramIndex {
+
+    public static final int BLOCK = 64; //Сторона блока
+    private static final int BINS = Histogram.BINS; //Количество столбцов гистограммы
+
+    private final MbvImage image; //Исходное изображение
+    private final int columns; //Количество блоков по горизонтали
+    private final int rows; //Количество блоков по вертикали
+    private final int[] cumulative; //Накопленные гистограммы узлов сетки, (rows + 1) x (columns + 1) x BINS
+
+    private HistogramIndex(MbvImage image) {
+        this.image = image;
+        this.columns = (image.getWidth() + BLOCK - 1) / BLOCK;
+        this.rows = (image.getHeight() + BLOCK - 1) / BLOCK;
+        this.cumulative = new int[(rows + 1) * (columns + 1) * BINS];
+    }
+
+    /**
+     * Метод построения индекса.
+     * Гистограммы блоков считаются параллельно по строкам блоков, затем накапливаются
+     * @param image Исходное изображение
+     * @return Индекс гистограмм
+     */
+    public static HistogramIndex build(MbvImage image) {
+        HistogramIndex index = new HistogramIndex(image);
+        RenderEngine.getDefault().getPool().invoke(new BlockTask(index, 0, index.rows));
+        int[] cumulative = index.cumulative;
+        int nodeColumns = index.columns + 1;
+        for(int i = 1; i <= index.rows; i++) {
+            for(int j = 1; j <= index.columns; j++) {
+                int node = (i * nodeColumns + j) * BINS;
+                int up = node - nodeColumns * BINS;
+                int left = node - BINS;
+                int corner = up - BINS;
+                for(int k = 0; k < BINS; k++) {
+                    cumulative[node + k] += cumulative[up + k] + cumulative[left + k] - cumulative[corner + k];
+                }
+            }
+        }
+        return index;
+    }
+
+    public MbvImage getImage() {
+        return image;
+    }
+
+    /**
+     * Метод прибавления гистограммы прямоугольника [left;right) x [top;bottom) к массиву количеств.
+     * Прямоугольник обрезается по границам изображения
+     * @param left Первый столбец
+     * @param top Первая строка
+     * @param right Столбец, следующий за последним
+     * @param bottom Строка, следующая за последней
+     * @param counts Массив из 1024 элементов, к которому прибавляются количества
+     */
+    public void query(int left, int top, int right, int bottom, int[] counts) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, image.getWidth());
+        bottom = Math.min(bottom, image.getHeight());
+        if(right <= left || bottom <= top) return;
+        //Узлы сетки внутри прямоугольника
+        int fromColumn = (left + BLOCK - 1) / BLOCK;
+        int toColumn = right == image.getWidth() ? columns : right / BLOCK;
+        int fromRow = (top + BLOCK - 1) / BLOCK;
+        int toRow = bottom == image.getHeight() ? rows : bottom / BLOCK;
+        if(fromColumn >= toColumn || fromRow >= toRow) {
+            add(image, left, top, right, bottom, counts, 1);
+            return;
+        }
+        int nodeColumns = columns + 1;
+        int a = (fromRow * nodeColumns + fromColumn) * BINS;
+        int b = (fromRow * nodeColumns + toColumn) * BINS;
+        int c = (toRow * nodeColumns + fromColumn) * BINS;
+        int d = (toRow * nodeColumns + toColumn) * BINS;
+        for(int k = 0; k < BINS; k++) {
+            counts[k] += cumulative[d + k] - cumulative[b + k] - cumulative[c + k] + cumulative[a + k];
+        }
+        //Края прямоугольника
+        int innerLeft = Math.min(fromColumn * BLOCK, image.getWidth());
+        int innerRight = Math.min(toColumn * BLOCK, image.getWidth());
+        int innerTop = Math.min(fromRow * BLOCK, image.getHeight());
+        int innerBottom = Math.min(toRow * BLOCK, image.getHeight());
+        add(image, left, top, right, innerTop, counts, 1);
+        add(image, left, innerBottom, right, bottom, counts, 1);
+        add(image, left, innerTop, innerLeft, innerBottom, counts, 1);
+        add(image, innerRight, innerTop, right, innerBottom, counts, 1);
+    }
+
+    /**
+     * Метод прибавления или вычитания количеств яркостей прямоугольника полным просмотром
+     * @param image Изображение
+     * @param left Первый столбец
+     * @param top Первая строка
+     * @param right Столбец, следующий за последним
+     * @param bottom Строка, следующая за последней
+     * @param counts Массив из 1024 элементов
+     * @param sign 1 для прибавления, -1 для вычитания
+     */
+    public static void add(MbvImage image, int left, int top, int right, int bottom, int[] counts, int sign) {
+        short[] data = image.getData();
+        for(int i = top; i < bottom; i++) {
+            int row = image.offset(i);
+            for(int j = left; j < right; j++) {
+                counts[data[row + j]] += sign;
+            }
+        }
+    }
+
+    /**
+     * Стоимость запроса в обращениях к памяти, используется для выбора между запросом и пошаговым обновлением
+     * @param width Ширина прямоугольника
+     * @param height Высота прямоугольника
+     * @return Оценка стоимости
+     */
+    public static long queryCost(int width, int height) {
+        return 4L * BINS + 2L * BLOCK * ((long)width + height);
+    }
+
+    /**
+     * Задача подсчета гистограмм блоков для полосы строк блоков
+     */
+    private static class BlockTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final HistogramIndex index;
+        private final int fromRow, toRow;
+
+        BlockTask(HistogramIndex index, int fromRow, int toRow) {
+            this.index = index;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            if(toRow - fromRow > 1) {
+                int middle = (fromRow + toRow) >>> 1;
+                invokeAll(new BlockTask(index, fromRow, middle), new BlockTask(index, middle, toRow));
+                return;
+            }
+            MbvImage image = index.image;
+            short[] data = image.getData();
+            int nodeColumns = index.columns + 1;
+            int top = fromRow * BLOCK;
+            int bottom = Math.min(top + BLOCK, image.getHeight());
+            //Гистограмма блока записывается в его правый нижний узел, накопление выполняется после
+            int nodeRow = (fromRow + 1) * nodeColumns;
+            for(int i = top; i < bottom; i++) {
+                int row = image.offset(i);
+                for(int j = 0; j < image.getWidth(); j++) {
+                    index.cumulative[(nodeRow + j / BLOCK + 1) * BINS + data[row + j]]++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package ru.zagarazhi;
+
+import java.io.File;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+/**
+ * Задача фоновой загрузки изображения.
+ * Файл читается вне потока JavaFX с сообщением о прогрессе в байтах.
+ * Изображение, гистограмма, пирамида уменьшенных копий и индекс гистограмм областей
+ * передаются приложению по мере готовности. Таблицы минимумов и максимумов и интегральное изображение
+ * занимают намного больше памяти, чем само изображение, поэтому здесь не строятся.
+ * Отмененная задача больше ничего не передает, чтение при этом прерывается.
+ * Для кадров серии изображение передается сразу, гистограмма и пирамида берутся из кэша серии,
+ * а недостающие данные строятся только если за SETTLE_MILLIS не был запрошен другой кадр.
+ */
+public class ImageLoader extends Task<MbvImage> {
+
+    private static final long SETTLE_MILLIS = 150; //Пауза перед построением данных кадра серии
+
+    /**
+     * Интерфейс получения результатов загрузки. Все методы вызываются в потоке JavaFX
+     */
+    public interface Listener {
+        /**
+         * @param image Декодированное изображение
+         */
+        void imageLoaded(MbvImage image);
+
+        /**
+         * @param image Изображение, для которого построена гистограмма
+         * @param histogram Гистограмма строк ниже отступа
+         * @param padding Отступ, с которым построена гистограмма
+         */
+        void histogramReady(MbvImage image, Histogram histogram, int padding);
+
+        /**
+         * @param image Изображение, для которого построена пирамида
+         * @param mipMap Пирамида уменьшенных копий
+         */
+        void mipMapReady(MbvImage image, MipMap mipMap);
+
+        /**
+         * @param image Изображение, для которого построен индекс
+         * @param index Индекс гистограмм областей
+         */
+        void histogramIndexReady(MbvImage image, HistogramIndex index);
+    }
+
+    private final File file; //Загружаемый файл
+    private final FrameSequence sequence; //Серия кадров или null для отдельного файла
+    private final int frame; //Номер кадра в серии
+    private final int padding; //Отступ для построения гистограммы
+    private final Listener listener; //Получатель результатов
+    private boolean settled; //Выдержана ли пауза перед построением данных кадра серии
+
+    /**
+     * @param file Загружаемый файл
+     * @param padding Количество строк сверху, не учитываемых в гистограмме
+     * @param listener Получатель результатов
+     */
+    public ImageLoader(File file, int padding, Listener listener) {
+        this.file = file;
+        this.sequence = null;
+        this.frame = 0;
+        this.padding = padding;
+        this.listener = listener;
+    }
+
+    /**
+     * @param sequence Серия кадров, кадр берется из ее кэша или читается через нее
+     * @param frame Номер кадра
+     * @param padding Количество строк сверху, не учитываемых в гистограмме
+     * @param listener Получатель результатов
+     */
+    public ImageLoader(FrameSequence sequence, int frame, int padding, Listener listener) {
+        this.file = sequence.getFile(frame);
+        this.sequence = sequence;
+        this.frame = frame;
+        this.padding = padding;
+        this.listener = listener;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    protected MbvImage call() throws Exception {
+        updateMessage(file.getName());
+        final MbvImage image;
+        MBVFileReader.ProgressListener progress = new MBVFileReader.ProgressListener() {
+            @Override
+            public void progress(long bytesRead, long totalBytes) {
+                updateProgress(bytesRead, totalBytes);
+            }
+        };
+        if(sequence != null) {
+            image = sequence.get(frame);
+        } else if(file.getName().toLowerCase().endsWith(".mbvt")) {
+            try (MbvTiledFile tiled = MbvTiledFile.open(file)) {
+                image = tiled.readAll(progress);
+            }
+        } else {
+            image = MBVFileReader.readMapped(file, progress);
+        }
+        if(isCancelled()) return null;
+        publish(new Runnable() {
+            @Override
+            public void run() {
+                listener.imageLoaded(image);
+            }
+        });
+
+        final int histogramPadding = Math.min(padding, image.getHeight());
+        Histogram cachedHistogram = sequence == null ? null : sequence.getHistogram(frame, histogramPadding);
+        if(cachedHistogram == null) {
+            if(!settle()) return null;
+            cachedHistogram = Histogram.of(image, histogramPadding, image.getHeight());
+            if(sequence != null) sequence.putHistogram(frame, image, cachedHistogram, histogramPadding);
+        }
+        final Histogram histogram = cachedHistogram;
+        if(isCancelled()) return null;
+        publish(new Runnable() {
+            @Override
+            public void run() {
+                listener.histogramReady(image, histogram, histogramPadding);
+            }
+        });
+
+        MipMap cachedMipMap = sequence == null ? null : sequence.getMipMap(frame);
+        if(cachedMipMap == null) {
+            if(!settle()) return null;
+            cachedMipMap = MipMap.build(image);
+            if(sequence != null) sequence.putMipMap(frame, image, cachedMipMap);
+        }
+        final MipMap mipMap = cachedMipMap;
+        if(isCancelled()) return null;
+        publish(new Runnable() {
+            @Override
+            public void run() {
+                listener.mipMapReady(image, mipMap);
+            }
+        });
+
+        if(!settle()) return null;
+        final HistogramIndex histogramIndex = HistogramIndex.build(image);
+        if(isCancelled()) return null;
+        publish(new Runnable() {
+            @Override
+            public void run() {
+                listener.histogramIndexReady(image, histogramIndex);
+            }
+        });
+        return image;
+    }
+
+    /**
+     * Метод паузы перед построением данных кадра серии.
+     * При быстром переходе по кадрам задача за это время отменяется следующей,
+     * поэтому данные строятся только для кадра, на котором пользователь остановился
+     * @return false, если задача отменена
+     */
+    private boolean settle() {
+        if(sequence != null && !settled) {
+            settled = true;
+            try {
+                Thread.sleep(SETTLE_MILLIS);
+            } catch (InterruptedException interruptedException) {
+                return false;
+            }
+        }
+        return !isCancelled();
+    }
+
+    /**
+     * Метод передачи результата в поток JavaFX, если задача к тому моменту не отменена
+     * @param runnable Действие с результатом
+     */
+    private void publish(Runnable runnable) {
+        Platform.runLater(new Runnable() {
+            @Override
+            public void run() {
+                if(!isCancelled()) runnable.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,64 @@
+package ru.zagarazhi;
+
+/**
+ * Класс преобразования яркостей изображения в цвета формата INT_ARGB.
+ * Не зависит от оконного приложения и может использоваться без JavaFX.
+ */
+public class ImageRenderer {
+
+    private ImageRenderer() {
+    }
+
+    /**
+     * Метод преобразования прямоугольной области изображения по таблице цветов
+     * @param image Исходное изображение
+     * @param lut Таблица цветов из 1024 элементов
+     * @param x Координата x левого верхнего угла области
+     * @param y Координата y левого верхнего угла области
+     * @param width Ширина области
+     * @param height Высота области
+     * @param dst Массив, в который записываются цвета
+     * @param dstOffset Позиция в массиве для левого верхнего угла области
+     * @param dstStride Расстояние в массиве между началами соседних строк
+     */
+    public static void map(MbvImage image, int[] lut,
+                           int x, int y, int width, int height,
+                           int[] dst, int dstOffset, int dstStride) {
+        short[] data = image.getData();
+        for(int i = 0; i < height; i++) {
+            int row = image.offset(y + i) + x;
+            int position = dstOffset + i * dstStride;
+            for(int j = 0; j < width; j++) {
+                dst[position + j] = lut[data[row + j]];
+            }
+        }
+    }
+
+    /**
+     * Метод преобразования области изображения с прореживанием.
+     * Берется каждый stepX-ый столбец и каждая stepY-ая строка
+     * @param image Исходное изображение
+     * @param lut Таблица цветов из 1024 элементов
+     * @param x Координата x первого выбираемого пикселя
+     * @param y Координата y первого выбираемого пикселя
+     * @param stepX Шаг по столбцам
+     * @param stepY Шаг по строкам
+     * @param width Ширина получаемого изображения
+     * @param height Высота получаемого изображения
+     * @param dst Массив, в который записываются цвета
+     * @param dstOffset Позиция в массиве для левого верхнего угла
+     * @param dstStride Расстояние в массиве между началами соседних строк
+     */
+    public static void sample(MbvImage image, int[] lut,
+                              int x, int y, int stepX, int stepY, int width, int height,
+                              int[] dst, int dstOffset, int dstStride) {
+        short[] data = image.getData();
+        for(int i = 0; i < height; i++) {
+            int row = image.offset(y + i * stepY) + x;
+            int position = dstOffset + i * dstStride;
+            for(int j = 0; j < width; j++) {
+                dst[position + j] = lut[data[row + j * stepX]];
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package ru.zagarazhi;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Класс интегрального изображения.
+ * Для каждой точки хранятся сумма яркостей и сумма квадратов яркостей всех пикселей выше и левее нее,
+ * поэтому количество, среднее и среднеквадратичное отклонение любого прямоугольника вычисляются за O(1).
+ * Таблицы имеют размер (width + 1) x (height + 1), нулевые строка и столбец заполнены нулями.
+ */
+public class IntegralImage {
+
+    private static final int BAND_ROWS = 64; //Минимальное количество строк в одной полосе
+    private static final int BAND_COLUMNS = 64; //Минимальное количество столбцов в одной полосе
+
+    private final MbvImage image; //Исходное изображение
+    private final int stride; //Длина строки таблиц
+    private final long[] sum; //Суммы яркостей
+    private final long[] squares; //Суммы квадратов яркостей
+
+    private IntegralImage(MbvImage image) {
+        this.image = image;
+        this.stride = image.getWidth() + 1;
+        this.sum = new long[stride * (image.getHeight() + 1)];
+        this.squares = new long[sum.length];
+    }
+
+    /**
+     * Метод построения таблиц.
+     * Сначала параллельно по полосам строк вычисляются суммы вдоль строк,
+     * затем параллельно по полосам столбцов они накапливаются сверху вниз
+     * @param image Исходное изображение
+     * @return Интегральное изображение
+     */
+    public static IntegralImage build(MbvImage image) {
+        IntegralImage integral = new IntegralImage(image);
+        RenderEngine.getDefault().getPool().invoke(new RowTask(integral, 0, image.getHeight()));
+        RenderEngine.getDefault().getPool().invoke(new ColumnTask(integral, 1, integral.stride));
+        return integral;
+    }
+
+    /**
+     * Объем памяти, занимаемый таблицами изображения заданного размера
+     * @param width Ширина изображения
+     * @param height Высота изображения
+     * @return Размер в байтах
+     */
+    public static long bytes(int width, int height) {
+        return 16L * (width + 1) * (height + 1);
+    }
+
+    public MbvImage getImage() {
+        return image;
+    }
+
+    /**
+     * Метод вычисления характеристик прямоугольника. Прямоугольник обрезается по границам изображения
+     * @param x Координата x левого верхнего угла
+     * @param y Координата y левого верхнего угла
+     * @param width Ширина прямоугольника
+     * @param height Высота прямоугольника
+     * @return Характеристики прямоугольника
+     */
+    public Stats stats(int x, int y, int width, int height) {
+        int left = Math.max(x, 0);
+        int top = Math.max(y, 0);
+        int right = Math.min(x + width, image.getWidth());
+        int bottom = Math.min(y + height, image.getHeight());
+        if(right <= left || bottom <= top) return new Stats(0, 0, 0);
+        return new Stats((long)(right - left) * (bottom - top),
+                rectangle(sum, left, top, right, bottom),
+                rectangle(squares, left, top, right, bottom));
+    }
+
+    /**
+     * Сумма по прямоугольнику [left;right) x [top;bottom) через четыре угла таблицы
+     */
+    private long rectangle(long[] table, int left, int top, int right, int bottom) {
+        return table[bottom * stride + right] - table[top * stride + right]
+                - table[bottom * stride + left] + table[top * stride + left];
+    }
+
+    /**
+     * Класс характеристик прямоугольника
+     */
+    public static class Stats {
+
+        private final long count; //Количество пикселей
+        private final long sum; //Сумма яркостей
+        private final long squares; //Сумма квадратов яркостей
+
+        public Stats(long count, long sum, long squares) {
+            this.count = count;
+            this.sum = sum;
+            this.squares = squares;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @return Средняя яркость или 0 для пустого прямоугольника
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double)sum / count;
+        }
+
+        /**
+         * @return Среднеквадратичное отклонение яркости или 0 для пустого прямоугольника
+         */
+        public double getStandardDeviation() {
+            if(count == 0) return 0;
+            double mean = (double)sum / count;
+            return Math.sqrt(Math.max((double)squares / count - mean * mean, 0));
+        }
+    }
+
+    /**
+     * Задача накопления сумм вдоль полосы строк
+     */
+    private static class RowTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IntegralImage integral;
+        private final int fromRow, toRow;
+
+        RowTask(IntegralImage integral, int fromRow, int toRow) {
+            this.integral = integral;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            if(toRow - fromRow > BAND_ROWS) {
+                int middle = (fromRow + toRow) >>> 1;
+                invokeAll(new RowTask(integral, fromRow, middle), new RowTask(integral, middle, toRow));
+                return;
+            }
+            MbvImage image = integral.image;
+            short[] data = image.getData();
+            for(int i = fromRow; i < toRow; i++) {
+                int row = image.offset(i);
+                int position = (i + 1) * integral.stride + 1;
+                long sum = 0, squares = 0;
+                for(int j = 0; j < image.getWidth(); j++) {
+                    long value = data[row + j];
+                    sum += value;
+                    squares += value * value;
+                    integral.sum[position + j] = sum;
+                    integral.squares[position + j] = squares;
+                }
+            }
+        }
+    }
+
+    /**
+     * Задача накопления сумм сверху вниз для полосы столбцов
+     */
+    private static class ColumnTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IntegralImage integral;
+        private final int fromColumn, toColumn;
+
+        ColumnTask(IntegralImage integral, int fromColumn, int toColumn) {
+            this.integral = integral;
+            this.fromColumn = fromColumn;
+            this.toColumn = toColumn;
+        }
+
+        @Override
+        protected void compute() {
+            if(toColumn - fromColumn > BAND_COLUMNS) {
+                int middle = (fromColumn + toColumn) >>> 1;
+                invokeAll(new ColumnTask(integral, fromColumn, middle), new ColumnTask(integral, middle, toColumn));
+                return;
+            }
+            int stride = integral.stride;
+            long[] sum = integral.sum;
+            long[] squares = integral.squares;
+            //Строки обходятся целиком внутри полосы, чтобы читать память последовательно
+            for(int i = 2; i <= integral.image.getHeight(); i++) {
+                int position = i * stride;
+                for(int j = fromColumn; j < toColumn; j++) {
+                    sum[position + j] += sum[position - stride + j];
+                    squares[position + j] += squares[position - stride + j];
+                }
+            }
+        }
+    }
+}
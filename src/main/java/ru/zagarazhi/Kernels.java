@@ -0,0 +1,131 @@
+package ru.zagarazhi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Класс простых циклов над яркостями: декодирования файла и преобразования яркостей в восьмибитные значения.
+ * Если доступен модуль jdk.incubator.vector (JVM запущена с --add-modules jdk.incubator.vector),
+ * циклы выполняются векторными инструкциями, иначе - скалярным кодом.
+ * Выбор делается один раз при загрузке класса; свойство -Dsimple_observer.vector=false отключает векторный код.
+ */
+public final class Kernels {
+
+    private static final boolean VECTORIZED = detect(); //Используется ли векторный код
+
+    private Kernels() {
+    }
+
+    /**
+     * Метод проверки доступности векторного кода.
+     * Кроме наличия модуля проверяется, что векторный код действительно выполняется и дает те же результаты
+     */
+    private static boolean detect() {
+        if(!Boolean.parseBoolean(System.getProperty("simple_observer.vector", "true"))) return false;
+        if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) return false;
+        try {
+            short[] light = new short[100];
+            for(int i = 0; i < light.length; i++) light[i] = (short)(i * 10);
+            int[] vector = new int[light.length], scalar = new int[light.length];
+            VectorKernels.shiftToArgb(light, 0, vector, 0, light.length, 2);
+            shiftToArgbScalar(light, 0, scalar, 0, light.length, 2);
+            byte[] vectorGray = new byte[light.length], scalarGray = new byte[light.length];
+            VectorKernels.shiftToGray(light, 0, vectorGray, 0, light.length, 2);
+            shiftToGrayScalar(light, 0, scalarGray, 0, light.length, 2);
+            ByteBuffer bytes = ByteBuffer.allocate(2 * light.length).order(ByteOrder.LITTLE_ENDIAN);
+            for(short value : light) bytes.putShort((short)(value | 0xFC00));
+            short[] vectorDecoded = new short[light.length];
+            VectorKernels.decode(bytes, 0, vectorDecoded, 0, light.length);
+            return Arrays.equals(vector, scalar) && Arrays.equals(vectorGray, scalarGray) && Arrays.equals(vectorDecoded, light);
+        } catch (Throwable throwable) {
+            //Модуль есть, но его API отличается от ожидаемого
+            return false;
+        }
+    }
+
+    /**
+     * @return true, если используются векторные инструкции
+     */
+    public static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    /**
+     * Метод декодирования яркостей: два байта от младшего к старшему, из которых остаются десять значимых бит
+     * @param src Буфер с данными файла
+     * @param srcOffset Позиция первого байта в буфере
+     * @param dst Массив яркостей
+     * @param dstOffset Позиция первой яркости в массиве
+     * @param count Количество яркостей
+     */
+    public static void decode(ByteBuffer src, int srcOffset, short[] dst, int dstOffset, int count) {
+        if(VECTORIZED) {
+            VectorKernels.decode(src, srcOffset, dst, dstOffset, count);
+        } else {
+            decodeScalar(src, srcOffset, dst, dstOffset, count);
+        }
+    }
+
+    /**
+     * Скалярная реализация {@link #decode(ByteBuffer, int, short[], int, int)}
+     */
+    public static void decodeScalar(ByteBuffer src, int srcOffset, short[] dst, int dstOffset, int count) {
+        ByteBuffer buffer = src.order() == ByteOrder.LITTLE_ENDIAN ? src : src.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < count; i++) {
+            dst[dstOffset + i] = (short)(buffer.getShort(srcOffset + 2 * i) & TransferFunction.MASK);
+        }
+    }
+
+    /**
+     * Метод преобразования яркостей в восьмибитные значения сдвигом, как в {@link TransferFunction#shift(int)}
+     * @param src Массив яркостей
+     * @param srcOffset Позиция первой яркости
+     * @param dst Массив восьмибитных значений
+     * @param dstOffset Позиция первого значения
+     * @param count Количество яркостей
+     * @param offset Количество бит, на которое сдвигается яркость
+     */
+    public static void shiftToGray(short[] src, int srcOffset, byte[] dst, int dstOffset, int count, int offset) {
+        if(VECTORIZED) {
+            VectorKernels.shiftToGray(src, srcOffset, dst, dstOffset, count, offset);
+        } else {
+            shiftToGrayScalar(src, srcOffset, dst, dstOffset, count, offset);
+        }
+    }
+
+    /**
+     * Скалярная реализация {@link #shiftToGray(short[], int, byte[], int, int, int)}
+     */
+    public static void shiftToGrayScalar(short[] src, int srcOffset, byte[] dst, int dstOffset, int count, int offset) {
+        for(int i = 0; i < count; i++) {
+            dst[dstOffset + i] = (byte)(src[srcOffset + i] >>> offset);
+        }
+    }
+
+    /**
+     * Метод преобразования яркостей в серые цвета INT_ARGB сдвигом, как в {@link TransferFunction#shift(int)}
+     * @param src Массив яркостей
+     * @param srcOffset Позиция первой яркости
+     * @param dst Массив цветов
+     * @param dstOffset Позиция первого цвета
+     * @param count Количество яркостей
+     * @param offset Количество бит, на которое сдвигается яркость
+     */
+    public static void shiftToArgb(short[] src, int srcOffset, int[] dst, int dstOffset, int count, int offset) {
+        if(VECTORIZED) {
+            VectorKernels.shiftToArgb(src, srcOffset, dst, dstOffset, count, offset);
+        } else {
+            shiftToArgbScalar(src, srcOffset, dst, dstOffset, count, offset);
+        }
+    }
+
+    /**
+     * Скалярная реализация {@link #shiftToArgb(short[], int, int[], int, int, int)}
+     */
+    public static void shiftToArgbScalar(short[] src, int srcOffset, int[] dst, int dstOffset, int count, int offset) {
+        for(int i = 0; i < count; i++) {
+            dst[dstOffset + i] = TransferFunction.gray((src[srcOffset + i] >>> offset) & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package ru.zagarazhi;
+
+import java.util.Arrays;
+
+/**
+ * Tick values of the base 10 logarithmic scale used by {@link HistogramChart}<br>
+ * Kept apart from the chart so it can be used without a JavaFX toolkit.
+ */
+public class LogarithmicTicks {
+
+	private LogarithmicTicks() {
+	}
+
+	/**
+	 * Compute the major tick values inside [lowerBound, upperBound]: 1..9 times each visible power of ten.
+	 * Only the decades between the bounds are generated and powers are built by multiplication.
+	 * 
+	 * @param lowerBound
+	 * @param upperBound
+	 * @return the tick values in ascending order
+	 */
+	public static double[] computeTickValues(double lowerBound, double upperBound) {
+		return computeTicks(lowerBound, upperBound, 1);
+	}
+
+	/**
+	 * Compute the minor tick values inside [lowerBound, upperBound]: each unit step between major ticks is
+	 * divided in minorTickCount parts.
+	 * 
+	 * @param lowerBound
+	 * @param upperBound
+	 * @param minorTickCount
+	 * @return the tick values in ascending order
+	 */
+	public static double[] computeMinorTickValues(double lowerBound, double upperBound, int minorTickCount) {
+		return computeTicks(lowerBound, upperBound, Math.max(1, minorTickCount));
+	}
+
+	private static double[] computeTicks(double lowerBound, double upperBound, int divisions) {
+		if (!(upperBound > 0) || lowerBound > upperBound) {
+			return new double[0];
+		}
+		double lower = Math.max(lowerBound, Double.MIN_NORMAL);
+		int firstDecade = (int) Math.floor(Math.log10(lower));
+		int lastDecade = (int) Math.floor(Math.log10(upperBound));
+		double[] ticks = new double[(lastDecade - firstDecade + 1) * 9 * divisions];
+		int count = 0;
+		double power = Math.pow(10, firstDecade);
+		for (int decade = firstDecade; decade <= lastDecade; decade++, power *= 10) {
+			for (int j = 1; j <= 9; j++) {
+				for (int k = 0; k < divisions; k++) {
+					double value = (j + (double) k / divisions) * power;
+					if (value >= lower && value <= upperBound) {
+						ticks[count++] = value;
+					}
+				}
+			}
+		}
+		return count == ticks.length ? ticks : Arrays.copyOf(ticks, count);
+	}
+}
@@ -4,24 +4,240 @@ import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Класс чтения файлов формата .mbv
  */
 public class MBVFileReader {
+
+    private static final int PROGRESS_ROWS = 64; //Количество строк между сообщениями о прогрессе
+    private static final int REGION_BYTES = 1 << 20; //Наибольший объем одного чтения области
+
+    /**
+     * Интерфейс получения сведений о ходе чтения файла
+     */
+    public interface ProgressListener {
+        /**
+         * @param bytesRead Количество уже обработанных байт
+         * @param totalBytes Размер файла в байтах
+         */
+        void progress(long bytesRead, long totalBytes);
+    }
+
+    /**
+     * Интерфейс построчной обработки файла без построения всего изображения
+     */
+    public interface RowsListener {
+        /**
+         * @param data Яркости блока строк подряд, по width яркостей на строку
+         * @param firstRow Номер первой строки блока
+         * @param rows Количество строк в блоке
+         * @param width Ширина изображения
+         */
+        void rows(short[] data, int firstRow, int rows, int width);
+    }
+
+    /**
+     * Класс заголовка файла .mbv
+     */
+    public static class Header {
+
+        private final int width; //Ширина изображения
+        private final int height; //Высота изображения
+        private final long fileSize; //Размер файла в байтах
+
+        public Header(int width, int height, long fileSize) {
+            this.width = width;
+            this.height = height;
+            this.fileSize = fileSize;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        /**
+         * @return Размер файла, который должен соответствовать заголовку
+         */
+        public long getExpectedSize() {
+            return 4 + 2L * width * height;
+        }
+    }
+
+    /**
+     * Метод чтения только заголовка файла без декодирования пикселей.
+     * Читаются первые четыре байта, а размер файла сверяется с размерами изображения
+     * @param file Файл необходимого формата.
+     * @return Заголовок файла
+     * @throws IOException Ошибка, вызванная отсутсвием файла или нарушением его целостности.
+     * @throws SecurityException Ошибка доступа к файлу.
+     */
+    public static Header probe(File file) throws IOException, SecurityException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return header(channel);
+        } catch (NoSuchFileException noSuchFileException) {
+            throw new IOException(".mbv file not found");
+        }
+    }
+
+    /**
+     * Метод чтения заголовка из открытого файла позиционным чтением
+     */
+    private static Header header(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if(size < 4) throw new IOException(".mbv file is empty");
+        ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, buffer.position()) < 0) throw new IOException(".mbv file is empty");
+        }
+        short width = buffer.getShort(0);
+        short height = buffer.getShort(2);
+        if(width < 0 | height < 0) throw new IOException("Invalid image bounderies");
+        Header header = new Header(width, height, size);
+        if(header.getExpectedSize() > size) throw new IOException("Empty bytes");
+        return header;
+    }
+
+    /**
+     * Метод чтения области файла с прореживанием.
+     * Результат имеет размеры ceil(width / step) x ceil(height / step)
+     * @see #readRegion(File, int, int, int, int, int, short[], int, int)
+     */
+    public static MbvImage readRegion(File file, int x, int y, int width, int height, int step)
+            throws IOException, SecurityException {
+        if(step <= 0 || width < 0 || height < 0) throw new IllegalArgumentException("Invalid region");
+        MbvImage result = new MbvImage((width + step - 1) / step, (height + step - 1) / step);
+        readRegion(file, x, y, width, height, step, result.getData(), 0, result.getStride());
+        return result;
+    }
+
+    /**
+     * Метод чтения области файла с прореживанием в заданный массив.
+     * Из файла позиционным чтением берутся только нужные строки, причем каждая - от первого
+     * до последнего нужного столбца, поэтому объем чтения пропорционален области, а не всему файлу.
+     * Строки во всю ширину без прореживания идут в файле подряд и читаются блоками по несколько строк.
+     * Чтение можно прервать прерыванием потока, в котором оно выполняется.
+     * @param file Файл необходимого формата.
+     * @param x Первый столбец области
+     * @param y Первая строка области
+     * @param width Ширина области
+     * @param height Высота области
+     * @param step Шаг прореживания: берется каждая step-я строка и каждый step-й столбец
+     * @param dst Массив, в который записываются ceil(height / step) строк по ceil(width / step) яркостей
+     * @param dstOffset Позиция в массиве для левого верхнего угла области
+     * @param dstStride Расстояние в массиве между началами соседних строк
+     * @throws InterruptedIOException Чтение было прервано.
+     * @throws IOException Ошибка, вызванная отсутсвием файла или нарушением его целостности.
+     * @throws SecurityException Ошибка доступа к файлу.
+     */
+    public static void readRegion(File file, int x, int y, int width, int height, int step,
+                                  short[] dst, int dstOffset, int dstStride) throws IOException, SecurityException {
+        if(step <= 0 || x < 0 || y < 0 || width < 0 || height < 0) throw new IllegalArgumentException("Invalid region");
+        int columns = (width + step - 1) / step;
+        int rows = (height + step - 1) / step;
+        if(dstStride < columns || (rows > 0 && dstOffset + (long)(rows - 1) * dstStride + columns > dst.length)) {
+            throw new IllegalArgumentException("Not enough space in destination");
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Header header = header(channel);
+            if(x + width > header.getWidth() || y + height > header.getHeight()) {
+                throw new IllegalArgumentException("Region is out of image");
+            }
+            if(rows == 0 || columns == 0) return;
+
+            long rowBytes = 2L * header.getWidth();
+            int span = 2 * ((columns - 1) * step + 1); //Байты от первого до последнего нужного столбца строки
+            int batch = step == 1 && width == header.getWidth() ? Math.max(1, REGION_BYTES / span) : 1;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(batch * span).order(ByteOrder.LITTLE_ENDIAN);
+            for(int i = 0; i < rows; i += batch) {
+                if(Thread.currentThread().isInterrupted()) throw new InterruptedIOException(".mbv reading interrupted");
+                int count = Math.min(batch, rows - i);
+                long position = 4 + (y + (long)i * step) * rowBytes + 2L * x;
+                buffer.clear().limit(count * span);
+                while(buffer.hasRemaining()) {
+                    if(channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Empty bytes");
+                }
+                for(int r = 0; r < count; r++) {
+                    int row = dstOffset + (i + r) * dstStride;
+                    if(step == 1) {
+                        Kernels.decode(buffer, r * span, dst, row, columns);
+                    } else {
+                        for(int j = 0; j < columns; j++) {
+                            dst[row + j] = (short)(buffer.getShort(r * span + 2 * j * step) & 0x3FF);
+                        }
+                    }
+                }
+            }
+        } catch (NoSuchFileException noSuchFileException) {
+            throw new IOException(".mbv file not found");
+        }
+    }
     
+    /**
+     * Метод построчного чтения файла блоками по PROGRESS_ROWS строк.
+     * Блоки декодируются в один и тот же массив, поэтому в памяти одновременно находится
+     * только один блок, а не все изображение. Массив действителен только до возврата из listener.
+     * Чтение можно прервать прерыванием потока, в котором оно выполняется.
+     * @param file Файл необходимого формата.
+     * @param listener Получатель блоков строк
+     * @return Заголовок файла
+     * @throws InterruptedIOException Чтение было прервано.
+     * @throws IOException Ошибка, вызванная отсутсвием файла или нарушением его целостности.
+     * @throws SecurityException Ошибка доступа к файлу.
+     */
+    public static Header readRows(File file, RowsListener listener) throws IOException, SecurityException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Header header = header(channel);
+            int width = header.getWidth();
+            int height = header.getHeight();
+            if(width == 0 || height == 0) return header;
+            short[] data = new short[PROGRESS_ROWS * width];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(2 * data.length).order(ByteOrder.LITTLE_ENDIAN);
+            for(int i = 0; i < height; i += PROGRESS_ROWS) {
+                if(Thread.currentThread().isInterrupted()) throw new InterruptedIOException(".mbv reading interrupted");
+                int rows = Math.min(PROGRESS_ROWS, height - i);
+                long position = 4 + 2L * i * width;
+                buffer.clear().limit(2 * rows * width);
+                while(buffer.hasRemaining()) {
+                    if(channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Empty bytes");
+                }
+                Kernels.decode(buffer, 0, data, 0, rows * width);
+                listener.rows(data, i, rows, width);
+            }
+            return header;
+        } catch (NoSuchFileException noSuchFileException) {
+            throw new IOException(".mbv file not found");
+        }
+    }
+
     /**
      * Метод для чтения файлов формата .mbv
      * @param file Файл необходимого формата.
-     * @return Двумерный массив типа short[][], в котором хранятся значение яркости каждого пикселя.
+     * @return Изображение, в котором хранятся значение яркости каждого пикселя.
      * При этом значение может превышать 255.
      * @throws IOException Ошибка, вызванная отсутсвием файла или нарушением его целостности.
      * @throws SecurityException Ошибка доступа к файлу.
      */
-    public static short[][] read(File file) throws IOException, SecurityException{
+    public static MbvImage read(File file) throws IOException, SecurityException{
         short width = 0;
         short height = 0;
-        short[][] result = null;
+        MbvImage result = null;
 
         try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
 
@@ -40,17 +256,19 @@ public class MBVFileReader {
             height = (short)(((temp[3] & 0xFF) << 8) | (temp[2] & 0xFF));
             if(width < 0 | height < 0) throw new IOException("Invalid image bounderies");
 
-            //Преобразование одномерного массива типа byte в двумерный массив типа short.
+            //Преобразование одномерного массива типа byte в изображение.
             //При этом отслеживается выход за границы массива
             int position = 4;
             int arrLength = temp.length;
-            result = new short[height][width];
+            result = new MbvImage(width, height);
+            short[] data = result.getData();
+            int index = 0;
             for(int i = 0; i < height; i++) {
                 for(int j = 0; j < width; j++) {
                     if(position + 1 >= arrLength) throw new IOException("Empty bytes");
                     //По условию задания все биты кроме десяти значимых должны быть нулями,
                     //поэтому младший байт записывается полностью, а в старшем только два младших бита
-                    result[i][j] = (short)(((temp[position + 1] & 0x3) << 8) | (temp[position] & 0xFF));
+                    data[index++] = (short)(((temp[position + 1] & 0x3) << 8) | (temp[position] & 0xFF));
                     position += 2;
                 }
             }
@@ -61,4 +279,69 @@ public class MBVFileReader {
         }
         return result;
     }
+
+    /**
+     * Метод для чтения файлов формата .mbv через отображение файла в память.
+     * В отличие от {@link #read(File)} файл не копируется в промежуточный массив байт:
+     * значения яркости декодируются напрямую из {@link MappedByteBuffer} в итоговый массив.
+     * @param file Файл необходимого формата.
+     * @return Изображение, в котором хранятся значение яркости каждого пикселя.
+     * @throws IOException Ошибка, вызванная отсутсвием файла или нарушением его целостности.
+     * @throws SecurityException Ошибка доступа к файлу.
+     */
+    public static MbvImage readMapped(File file) throws IOException, SecurityException{
+        return readMapped(file, null);
+    }
+
+    /**
+     * Метод для чтения файлов формата .mbv через отображение файла в память с отслеживанием прогресса.
+     * Чтение можно прервать прерыванием потока, в котором оно выполняется.
+     * @param file Файл необходимого формата.
+     * @param listener Получатель сведений о прогрессе или null.
+     * @return Изображение, в котором хранятся значение яркости каждого пикселя.
+     * @throws InterruptedIOException Чтение было прервано.
+     * @throws IOException Ошибка, вызванная отсутсвием файла или нарушением его целостности.
+     * @throws SecurityException Ошибка доступа к файлу.
+     */
+    public static MbvImage readMapped(File file, ProgressListener listener) throws IOException, SecurityException{
+        MbvImage result = null;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size < 4) throw new IOException(".mbv file is empty");
+
+            //Файл отображается в память целиком, копирования в кучу при этом не происходит.
+            //Порядок байт в файле - от младшего к старшему
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            short width = buffer.getShort(0);
+            short height = buffer.getShort(2);
+            if(width < 0 | height < 0) throw new IOException("Invalid image bounderies");
+            if(4 + 2L * width * height > size) throw new IOException("Empty bytes");
+
+            //Маска 0x3FF оставляет только десять значимых бит.
+            //Строки декодируются блоками, между которыми проверяется прерывание и сообщается прогресс.
+            //Сам блок декодируется векторными инструкциями, если они доступны
+            int position = 4;
+            result = new MbvImage(width, height);
+            short[] data = result.getData();
+            int index = 0;
+            for(int i = 0; i < height; i += PROGRESS_ROWS) {
+                if(Thread.currentThread().isInterrupted()) throw new InterruptedIOException(".mbv reading interrupted");
+                int count = Math.min(height, i + PROGRESS_ROWS) * width - index;
+                Kernels.decode(buffer, position, data, index, count);
+                index += count;
+                position += 2 * count;
+                if(listener != null) listener.progress(position, size);
+            }
+        } catch (InterruptedIOException interruptedException) {
+            throw interruptedException;
+        } catch (IOException fileNotFoundException) {
+            throw new IOException(".mbv file not found");
+        } catch (SecurityException securityException) {
+            throw securityException;
+        }
+        return result;
+    }
 }
@@ -0,0 +1,280 @@
+package ru.zagarazhi;
+
+/**
+ * Класс увеличения участка изображения.
+ * Увеличенный участок записывается в переиспользуемый буфер кадра, который затем передается в полотно одним вызовом.
+ * Билинейная интерполяция выполняется в целых числах с фиксированной точкой:
+ * веса для каждого порядка увеличения вычисляются один раз и хранятся в таблицах.
+ * При небольшом сдвиге участка с теми же параметрами предыдущий результат сдвигается в буфере,
+ * а заново вычисляются только открывшиеся полосы.
+ */
+public class Magnifier {
+
+    /**
+     * Метод увеличения
+     */
+    public enum Mode {
+        NEIGHBOR, //Метод ближайшего соседа
+        INTERPOLATION //Метод билинейной интерполяции
+    }
+
+    private static final int WEIGHT_BITS = 8; //Количество дробных бит веса
+    private static final int ONE = 1 << WEIGHT_BITS; //Единица в формате с фиксированной точкой
+
+    private final FrameBuffer output = new FrameBuffer(); //Буфер увеличенного участка
+    private int[] weights = new int[0]; //Веса интерполяции для текущего порядка увеличения
+    private int weightsScale; //Порядок увеличения, для которого вычислены веса
+    private int[] colors = new int[0]; //Цвета одной строки исходного участка
+
+    //Параметры, с которыми построено содержимое буфера
+    private boolean valid; //Соответствует ли буфер параметрам ниже
+    private MbvImage lastImage;
+    private int[] lastLut;
+    private Mode lastMode;
+    private boolean lastNormalize;
+    private int lastMin, lastMax;
+    private int lastCornerX, lastCornerY;
+    private int lastAreaSize, lastScale;
+
+    /**
+     * Метод увеличения участка изображения.
+     * Если изображение, таблица цветов, метод, размер, порядок увеличения и границы нормализации не изменились,
+     * а участок сдвинулся меньше чем на свой размер, вычисляются только открывшиеся полосы
+     * @param image Исходное изображение
+     * @param lut Таблица цветов, используется без нормализации
+     * @param mode Метод увеличения
+     * @param normalize Нужно ли растягивать яркости участка на диапазон [0;255]
+     * @param cornerX Координата x левого верхнего угла участка в изображении
+     * @param cornerY Координата y левого верхнего угла участка в изображении
+     * @param areaSize Размер стороны участка
+     * @param scale Порядок увеличения
+     * @param range Таблицы минимумов и максимумов изображения или null, тогда участок просматривается целиком
+     * @return Буфер кадра размером areaSize * scale
+     */
+    public FrameBuffer render(MbvImage image, int[] lut, Mode mode, boolean normalize,
+                              int cornerX, int cornerY, int areaSize, int scale, RangeMinMax range) {
+        output.resize(areaSize * scale, areaSize * scale);
+        int min = 0, max = 0;
+        if(normalize) {
+            //Определения самого яркого и самого тусклого пикселей участка
+            int packed;
+            if(range != null && range.getImage() == image) {
+                packed = range.query(cornerX, cornerY, areaSize, areaSize);
+            } else {
+                packed = scan(image, cornerX, cornerY, areaSize);
+            }
+            min = RangeMinMax.min(packed);
+            max = RangeMinMax.max(packed);
+        }
+        int dx = cornerX - lastCornerX;
+        int dy = cornerY - lastCornerY;
+        boolean reusable = valid && image == lastImage && mode == lastMode && normalize == lastNormalize
+                && areaSize == lastAreaSize && scale == lastScale
+                && (normalize ? min == lastMin && max == lastMax : lut == lastLut)
+                && Math.abs(dx) < areaSize && Math.abs(dy) < areaSize;
+        if(!reusable) {
+            fill(image, lut, mode, normalize, min, max, cornerX, cornerY, areaSize, scale, 0, areaSize, 0, areaSize);
+        } else if(dx != 0 || dy != 0) {
+            shift(dx * scale, dy * scale);
+            //Открывшиеся столбцы
+            if(dx > 0) {
+                fill(image, lut, mode, normalize, min, max, cornerX, cornerY, areaSize, scale, 0, areaSize, areaSize - dx, areaSize);
+            } else if(dx < 0) {
+                fill(image, lut, mode, normalize, min, max, cornerX, cornerY, areaSize, scale, 0, areaSize, 0, -dx);
+            }
+            //Открывшиеся строки
+            if(dy > 0) {
+                fill(image, lut, mode, normalize, min, max, cornerX, cornerY, areaSize, scale, areaSize - dy, areaSize, 0, areaSize);
+            } else if(dy < 0) {
+                fill(image, lut, mode, normalize, min, max, cornerX, cornerY, areaSize, scale, 0, -dy, 0, areaSize);
+            }
+        }
+        valid = true;
+        lastImage = image;
+        lastLut = lut;
+        lastMode = mode;
+        lastNormalize = normalize;
+        lastMin = min;
+        lastMax = max;
+        lastCornerX = cornerX;
+        lastCornerY = cornerY;
+        lastAreaSize = areaSize;
+        lastScale = scale;
+        return output;
+    }
+
+    /**
+     * Метод сброса сохраненного результата. Следующий вызов render вычислит участок целиком
+     */
+    public void invalidate() {
+        valid = false;
+        lastImage = null;
+        lastLut = null;
+    }
+
+    public FrameBuffer getOutput() {
+        return output;
+    }
+
+    /**
+     * Таблица весов для порядка увеличения: weights[n] = n / scale в формате с фиксированной точкой
+     * @param scale Порядок увеличения
+     * @return Таблица весов
+     */
+    private int[] weights(int scale) {
+        if(weightsScale != scale) {
+            weights = new int[scale];
+            for(int n = 0; n < scale; n++) {
+                weights[n] = (n << WEIGHT_BITS) / scale;
+            }
+            weightsScale = scale;
+        }
+        return weights;
+    }
+
+    /**
+     * Цвет нормализованной яркости.
+     * @param value Яркость, умноженная на 2^(2 * WEIGHT_BITS)
+     * @param min Наименьшая яркость участка
+     * @param max Наибольшая яркость участка
+     * @return Цвет в формате INT_ARGB
+     */
+    private static int normalized(long value, int min, int max) {
+        if(max <= min) return TransferFunction.gray(0);
+        long light = ((value - ((long)min << (2 * WEIGHT_BITS))) * 255 / (max - min)) >> (2 * WEIGHT_BITS);
+        if(light < 0) light = 0;
+        if(light > 255) light = 255;
+        return TransferFunction.gray((int)light);
+    }
+
+    /**
+     * Поиск наименьшей и наибольшей яркости участка полным перебором
+     * @return Минимум и максимум в формате RangeMinMax
+     */
+    private static int scan(MbvImage image, int cornerX, int cornerY, int areaSize) {
+        short[] data = image.getData();
+        int min = TransferFunction.MASK, max = 0;
+        for(int i = cornerY; i < cornerY + areaSize; i++) {
+            int row = image.offset(i);
+            for(int j = cornerX; j < cornerX + areaSize; j++) {
+                int temp = data[row + j];
+                if(temp < min) min = temp;
+                if(temp > max) max = temp;
+            }
+        }
+        return (min << 16) | max;
+    }
+
+    /**
+     * Метод сдвига содержимого буфера: пиксель (x + dx, y + dy) переходит в (x, y).
+     * Пиксели, для которых нет источника, остаются прежними и должны быть вычислены заново
+     * @param dx Сдвиг по горизонтали в пикселях буфера
+     * @param dy Сдвиг по вертикали в пикселях буфера
+     */
+    private void shift(int dx, int dy) {
+        int[] argb = output.getData();
+        int width = output.getWidth();
+        int height = output.getHeight();
+        int length = width - Math.abs(dx);
+        int fromX = Math.max(dx, 0); //Столбец источника
+        int toX = Math.max(-dx, 0); //Столбец назначения
+        int rows = height - Math.abs(dy);
+        //Порядок обхода строк выбирается так, чтобы не затереть еще не скопированные строки
+        if(dy >= 0) {
+            for(int y = 0; y < rows; y++) {
+                System.arraycopy(argb, (y + dy) * width + fromX, argb, y * width + toX, length);
+            }
+        } else {
+            for(int y = height - 1; y >= height - rows; y--) {
+                System.arraycopy(argb, (y + dy) * width + fromX, argb, y * width + toX, length);
+            }
+        }
+    }
+
+    /**
+     * Метод вычисления прямоугольника блоков участка.
+     * Блок (i, j) - это квадрат scale x scale, соответствующий пикселю участка в строке i и столбце j
+     * @param fromRow Первая строка участка
+     * @param toRow Строка, следующая за последней
+     * @param fromColumn Первый столбец участка
+     * @param toColumn Столбец, следующий за последним
+     */
+    private void fill(MbvImage image, int[] lut, Mode mode, boolean normalize, int min, int max,
+                      int cornerX, int cornerY, int areaSize, int scale,
+                      int fromRow, int toRow, int fromColumn, int toColumn) {
+        if(mode == Mode.NEIGHBOR) {
+            neighbor(image, lut, normalize, min, max, cornerX, cornerY, areaSize, scale, fromRow, toRow, fromColumn, toColumn);
+        } else {
+            interpolation(image, lut, normalize, min, max, cornerX, cornerY, areaSize, scale, fromRow, toRow, fromColumn, toColumn);
+        }
+    }
+
+    /**
+     * Увеличение методом ближайшего соседа.
+     * Первая строка каждого блока заполняется попиксельно, остальные строки блока копируются из нее
+     */
+    private void neighbor(MbvImage image, int[] lut, boolean normalize, int min, int max,
+                          int cornerX, int cornerY, int areaSize, int scale,
+                          int fromRow, int toRow, int fromColumn, int toColumn) {
+        short[] data = image.getData();
+        int[] argb = output.getData();
+        int outWidth = areaSize * scale;
+        int length = (toColumn - fromColumn) * scale;
+        if(colors.length < areaSize) colors = new int[areaSize];
+        for(int i = fromRow; i < toRow; i++) {
+            int row = image.offset(cornerY + i) + cornerX;
+            for(int j = fromColumn; j < toColumn; j++) {
+                colors[j] = normalize ? normalized((long)data[row + j] << (2 * WEIGHT_BITS), min, max) : lut[data[row + j]];
+            }
+            int position = i * scale * outWidth + fromColumn * scale;
+            for(int j = fromColumn, x = 0; j < toColumn; j++) {
+                int color = colors[j];
+                for(int n = 0; n < scale; n++) {
+                    argb[position + x++] = color;
+                }
+            }
+            for(int m = 1; m < scale; m++) {
+                System.arraycopy(argb, position, argb, position + m * outWidth, length);
+            }
+        }
+    }
+
+    /**
+     * Увеличение методом билинейной интерполяции в целых числах
+     */
+    private void interpolation(MbvImage image, int[] lut, boolean normalize, int min, int max,
+                               int cornerX, int cornerY, int areaSize, int scale,
+                               int fromRow, int toRow, int fromColumn, int toColumn) {
+        short[] data = image.getData();
+        int[] argb = output.getData();
+        int[] weight = weights(scale);
+        int outWidth = areaSize * scale;
+        int lastX = image.getWidth() - 1;
+        int lastY = image.getHeight() - 1;
+        for(int i = fromRow; i < toRow; i++) {
+            int row = image.offset(cornerY + i) + cornerX;
+            int nextRow = image.offset(Math.min(cornerY + i + 1, lastY)) + cornerX;
+            for(int j = fromColumn; j < toColumn; j++) {
+                int next = cornerX + j + 1 <= lastX ? j + 1 : j;
+                int p00 = data[row + j];
+                int p01 = data[row + next];
+                int p10 = data[nextRow + j];
+                int p11 = data[nextRow + next];
+                for(int m = 0; m < scale; m++) {
+                    int wy = weight[m];
+                    //Интерполяция по вертикали для левого и правого столбцов
+                    int left = p00 * (ONE - wy) + p10 * wy;
+                    int right = p01 * (ONE - wy) + p11 * wy;
+                    int position = (i * scale + m) * outWidth + j * scale;
+                    for(int n = 0; n < scale; n++) {
+                        int wx = weight[n];
+                        int value = left * (ONE - wx) + right * wx;
+                        argb[position + n] = normalize
+                                ? normalized(value, min, max)
+                                : lut[value >>> (2 * WEIGHT_BITS)];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ru.zagarazhi;
+
+/**
+ * Класс изображения формата .mbv.
+ * Все значения яркости хранятся в одном непрерывном массиве типа short[] построчно.
+ * Начало строки y находится в позиции y * stride.
+ */
+public class MbvImage {
+
+    private final int width; //Ширина изображения
+    private final int height; //Высота изображения
+    private final int stride; //Расстояние в массиве между началами соседних строк
+    private final short[] data; //Значения яркости
+
+    /**
+     * Создание пустого изображения
+     * @param width Ширина изображения
+     * @param height Высота изображения
+     */
+    public MbvImage(int width, int height) {
+        this(width, height, width, new short[width * height]);
+    }
+
+    /**
+     * Создание изображения поверх уже существующего массива
+     * @param width Ширина изображения
+     * @param height Высота изображения
+     * @param stride Расстояние между началами соседних строк, не меньше ширины
+     * @param data Массив значений яркости
+     */
+    public MbvImage(int width, int height, int stride, short[] data) {
+        if(width < 0 || height < 0 || stride < width) throw new IllegalArgumentException("Invalid image bounderies");
+        if(height > 0 && (long)(height - 1) * stride + width > data.length) throw new IllegalArgumentException("Not enough data");
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.data = data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Прямой доступ к массиву значений для плотных циклов.
+     * Индекс пикселя (x, y) равен offset(y) + x.
+     * @return Массив значений яркости
+     */
+    public short[] getData() {
+        return data;
+    }
+
+    /**
+     * Метод проверки наличия данных
+     * @return true, если в изображении нет ни одного пикселя
+     */
+    public boolean isEmpty() {
+        return width == 0 || height == 0;
+    }
+
+    /**
+     * Индекс начала строки в массиве данных
+     * @param y Номер строки
+     * @return Индекс первого пикселя строки
+     */
+    public int offset(int y) {
+        return y * stride;
+    }
+
+    /**
+     * Значение яркости одного пикселя
+     * @param x Номер столбца
+     * @param y Номер строки
+     * @return Значение яркости
+     */
+    public short get(int x, int y) {
+        return data[y * stride + x];
+    }
+
+    /**
+     * Запись значения яркости одного пикселя
+     * @param x Номер столбца
+     * @param y Номер строки
+     * @param value Значение яркости
+     */
+    public void set(int x, int y, short value) {
+        data[y * stride + x] = value;
+    }
+
+    /**
+     * Копирование части строки в массив
+     * @param y Номер строки
+     * @param x Номер первого копируемого столбца
+     * @param length Количество копируемых пикселей
+     * @param dst Массив, в который копируются значения
+     * @param dstOffset Позиция в массиве, с которой начинается запись
+     */
+    public void getRow(int y, int x, int length, short[] dst, int dstOffset) {
+        System.arraycopy(data, y * stride + x, dst, dstOffset, length);
+    }
+
+    /**
+     * Запись части строки из массива
+     * @param y Номер строки
+     * @param x Номер первого записываемого столбца
+     * @param length Количество записываемых пикселей
+     * @param src Массив, из которого берутся значения
+     * @param srcOffset Позиция в массиве, с которой начинается чтение
+     */
+    public void setRow(int y, int x, int length, short[] src, int srcOffset) {
+        System.arraycopy(src, srcOffset, data, y * stride + x, length);
+    }
+}
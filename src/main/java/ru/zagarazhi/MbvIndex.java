@@ -0,0 +1,409 @@
+package ru.zagarazhi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Класс индекса каталога с файлами .mbv.
+ * Для каждого файла хранятся размеры изображения, размер и время изменения файла,
+ * наименьшая и наибольшая яркость и миниатюра не больше THUMB_SIZE пикселей по большей стороне.
+ * Индекс сохраняется в файл INDEX_NAME внутри каталога; при повторном открытии
+ * заново обрабатываются только новые и измененные файлы, причем параллельно.
+ * Файлы, которые не удалось прочитать, тоже записываются в индекс с текстом ошибки,
+ * поэтому до их изменения они не обрабатываются повторно.
+ */
+public class MbvIndex {
+
+    public static final String INDEX_NAME = ".mbvindex"; //Имя файла индекса
+    public static final int THUMB_SIZE = 32; //Наибольшая сторона миниатюры
+    private static final int MAGIC = 0x4D425649; //Сигнатура файла индекса "MBVI"
+    private static final int VERSION = 2; //Версия формата файла индекса
+
+    /**
+     * Порядок записей по именам файлов
+     */
+    private static final Comparator<Entry> BY_NAME = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry first, Entry second) {
+            return first.name.compareTo(second.name);
+        }
+    };
+
+    private final File directory; //Каталог
+    private final List<Entry> entries; //Записи по именам файлов
+
+    private MbvIndex(File directory, List<Entry> entries) {
+        this.directory = directory;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Метод открытия индекса каталога.
+     * Сохраненный индекс читается, новые и измененные файлы обрабатываются параллельно,
+     * после чего индекс записывается обратно, если что-то изменилось.
+     * Поврежденные файлы попадают в индекс как записи с ошибкой, см. {@link Entry#isFailed()}
+     * @param directory Каталог
+     * @param threads Количество потоков обработки файлов
+     * @return Индекс каталога
+     * @throws InterruptedIOException Если обработка была прервана
+     * @throws IOException Если каталог не удалось прочитать
+     */
+    public static MbvIndex update(File directory, int threads) throws IOException {
+        File[] list = directory.listFiles();
+        if(list == null) throw new IOException("Not a directory");
+        Map<String, Entry> saved = load(new File(directory, INDEX_NAME));
+
+        List<Entry> entries = new ArrayList<>();
+        List<Callable<Entry>> tasks = new ArrayList<>();
+        for(final File file : list) {
+            if(!file.isFile() || !file.getName().toLowerCase().endsWith(".mbv")) continue;
+            Entry entry = saved.get(file.getName());
+            if(entry != null && entry.matches(file)) {
+                entries.add(entry);
+            } else {
+                final long fileSize = file.length();
+                final long modified = file.lastModified();
+                tasks.add(new Callable<Entry>() {
+                    @Override
+                    public Entry call() throws IOException {
+                        try {
+                            return scan(file);
+                        } catch (InterruptedIOException interruptedException) {
+                            throw interruptedException;
+                        } catch (IOException ioException) {
+                            String message = ioException.getMessage();
+                            return new Entry(file.getName(), fileSize, modified, message != null ? message : ioException.toString());
+                        }
+                    }
+                });
+            }
+        }
+
+        boolean changed = !tasks.isEmpty() || entries.size() != saved.size();
+        if(!tasks.isEmpty()) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mbv-index");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                for(Future<Entry> future : executor.invokeAll(tasks)) {
+                    try {
+                        entries.add(future.get());
+                    } catch (ExecutionException executionException) {
+                        //Ошибки чтения уже записаны в индекс, сюда попадают только прерывание и непредвиденные сбои
+                        Throwable cause = executionException.getCause();
+                        if(cause instanceof Error) throw (Error)cause;
+                        if(cause instanceof IOException) throw (IOException)cause;
+                        throw new IOException(cause);
+                    }
+                }
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Indexing interrupted");
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        Collections.sort(entries, BY_NAME);
+        MbvIndex index = new MbvIndex(directory, entries);
+        if(changed) index.save();
+        return index;
+    }
+
+    /**
+     * Метод чтения сохраненного индекса без обработки файлов.
+     * Записи могут не соответствовать текущему состоянию файлов, это проверяется {@link Entry#matches(File)}
+     * @param directory Каталог
+     * @return Индекс каталога; пустой, если индекс не сохранен или поврежден
+     */
+    public static MbvIndex read(File directory) {
+        List<Entry> entries = new ArrayList<>(load(new File(directory, INDEX_NAME)).values());
+        Collections.sort(entries, BY_NAME);
+        return new MbvIndex(directory, entries);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Метод обработки одного файла: проверка заголовка, поиск минимума и максимума и построение миниатюры.
+     * Файл читается блоками строк, поэтому изображение целиком в памяти не строится
+     * @param file Файл .mbv
+     * @return Запись индекса
+     * @throws InterruptedIOException Если чтение было прервано
+     * @throws IOException Если файл поврежден
+     */
+    public static Entry scan(File file) throws IOException {
+        long modified = file.lastModified();
+        MBVFileReader.Header header = MBVFileReader.probe(file);
+        //Миниатюра прореживанием, яркости сжимаются до восьми бит
+        final int step = Math.max(1, (Math.max(header.getWidth(), header.getHeight()) + THUMB_SIZE - 1) / THUMB_SIZE);
+        final int thumbWidth = header.getWidth() / step;
+        final int thumbHeight = header.getHeight() / step;
+        final byte[] thumbnail = new byte[thumbWidth * thumbHeight];
+        final int[] range = {TransferFunction.MASK, 0}; //Наименьшая и наибольшая яркость просмотренных строк
+        MBVFileReader.readRows(file, new MBVFileReader.RowsListener() {
+            @Override
+            public void rows(short[] data, int firstRow, int rows, int width) {
+                int min = range[0], max = range[1];
+                for(int i = 0; i < rows * width; i++) {
+                    int temp = data[i];
+                    if(temp < min) min = temp;
+                    if(temp > max) max = temp;
+                }
+                range[0] = min;
+                range[1] = max;
+                for(int i = 0; i < rows; i++) {
+                    int row = firstRow + i;
+                    if(row % step != 0 || row / step >= thumbHeight) continue;
+                    int thumbRow = row / step * thumbWidth;
+                    for(int j = 0; j < thumbWidth; j++) {
+                        thumbnail[thumbRow + j] = (byte)(data[i * width + j * step] >> 2);
+                    }
+                }
+            }
+        });
+        if(header.getWidth() == 0 || header.getHeight() == 0) range[0] = 0;
+        return new Entry(file.getName(), header.getFileSize(), modified, header.getWidth(), header.getHeight(),
+                range[0], range[1], thumbWidth, thumbHeight, thumbnail);
+    }
+
+    /**
+     * Метод чтения сохраненного индекса. Отсутствующий или поврежденный индекс считается пустым
+     */
+    private static Map<String, Entry> load(File indexFile) {
+        Map<String, Entry> result = new HashMap<>();
+        if(!indexFile.isFile()) return result;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) return result;
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long fileSize = in.readLong();
+                long modified = in.readLong();
+                if(in.readBoolean()) {
+                    result.put(name, new Entry(name, fileSize, modified, in.readUTF()));
+                    continue;
+                }
+                int width = in.readUnsignedShort();
+                int height = in.readUnsignedShort();
+                int min = in.readUnsignedShort();
+                int max = in.readUnsignedShort();
+                int thumbWidth = in.readUnsignedByte();
+                int thumbHeight = in.readUnsignedByte();
+                byte[] thumbnail = new byte[thumbWidth * thumbHeight];
+                in.readFully(thumbnail);
+                result.put(name, new Entry(name, fileSize, modified, width, height, min, max, thumbWidth, thumbHeight, thumbnail));
+            }
+        } catch (IOException ioException) {
+            result.clear();
+        }
+        return result;
+    }
+
+    /**
+     * Метод записи индекса. Индекс записывается во временный файл, который затем заменяет прежний
+     * @throws IOException Если индекс не удалось записать
+     */
+    public void save() throws IOException {
+        File temp = new File(directory, INDEX_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for(Entry entry : entries) {
+                out.writeUTF(entry.name);
+                out.writeLong(entry.fileSize);
+                out.writeLong(entry.modified);
+                out.writeBoolean(entry.isFailed());
+                if(entry.isFailed()) {
+                    out.writeUTF(entry.error);
+                    continue;
+                }
+                out.writeShort(entry.width);
+                out.writeShort(entry.height);
+                out.writeShort(entry.min);
+                out.writeShort(entry.max);
+                out.writeByte(entry.thumbWidth);
+                out.writeByte(entry.thumbHeight);
+                out.write(entry.thumbnail);
+            }
+        }
+        Files.move(temp.toPath(), new File(directory, INDEX_NAME).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Точка входа индексации каталога без окна
+     * @param args Каталог и, необязательно, количество потоков
+     * @throws IOException Если каталог не удалось прочитать или индекс записать
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("Usage: MbvIndex <directory> [threads]");
+            System.exit(2);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        MbvIndex index = update(new File(args[0]), threads);
+        int failed = 0;
+        for(Entry entry : index.getEntries()) {
+            if(entry.isFailed()) {
+                System.err.println(entry.name + ": " + entry.error);
+                failed++;
+            } else {
+                System.out.println(entry.name + " " + entry.width + "x" + entry.height + " [" + entry.min + ";" + entry.max + "]");
+            }
+        }
+        System.out.printf("Indexed %d files, %d failed, in %.1f s%n", index.getEntries().size(), failed,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Класс записи индекса об одном файле.
+     * Для файла, который не удалось прочитать, хранятся только размер, время изменения и текст ошибки
+     */
+    public static class Entry {
+
+        private final String name; //Имя файла
+        private final long fileSize; //Размер файла
+        private final long modified; //Время изменения файла
+        private final int width, height; //Размеры изображения
+        private final int min, max; //Наименьшая и наибольшая яркость
+        private final int thumbWidth, thumbHeight; //Размеры миниатюры
+        private final byte[] thumbnail; //Восьмибитная миниатюра построчно
+        private final String error; //Текст ошибки чтения или null
+
+        public Entry(String name, long fileSize, long modified, int width, int height, int min, int max,
+                     int thumbWidth, int thumbHeight, byte[] thumbnail) {
+            this.name = name;
+            this.fileSize = fileSize;
+            this.modified = modified;
+            this.width = width;
+            this.height = height;
+            this.min = min;
+            this.max = max;
+            this.thumbWidth = thumbWidth;
+            this.thumbHeight = thumbHeight;
+            this.thumbnail = thumbnail;
+            this.error = null;
+        }
+
+        /**
+         * Запись о файле, который не удалось прочитать
+         * @param name Имя файла
+         * @param fileSize Размер файла
+         * @param modified Время изменения файла
+         * @param error Текст ошибки
+         */
+        public Entry(String name, long fileSize, long modified, String error) {
+            this.name = name;
+            this.fileSize = fileSize;
+            this.modified = modified;
+            this.width = 0;
+            this.height = 0;
+            this.min = 0;
+            this.max = 0;
+            this.thumbWidth = 0;
+            this.thumbHeight = 0;
+            this.thumbnail = new byte[0];
+            this.error = error;
+        }
+
+        /**
+         * Проверка, что запись относится к текущему состоянию файла
+         * @param file Файл
+         * @return true, если размер и время изменения файла совпадают с записанными
+         */
+        public boolean matches(File file) {
+            return fileSize == file.length() && modified == file.lastModified();
+        }
+
+        /**
+         * @return true, если файл не удалось прочитать
+         */
+        public boolean isFailed() {
+            return error != null;
+        }
+
+        /**
+         * @return Текст ошибки чтения или null
+         */
+        public String getError() {
+            return error;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public int getThumbWidth() {
+            return thumbWidth;
+        }
+
+        public int getThumbHeight() {
+            return thumbHeight;
+        }
+
+        /**
+         * @return Восьмибитная миниатюра построчно, без копирования
+         */
+        public byte[] getThumbnail() {
+            return thumbnail;
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package ru.zagarazhi;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Класс файла формата .mbvt - изображения .mbv, разбитого на квадратные плитки.
+ * Каждая плитка сжимается отдельно: яркости заменяются разностями с соседом слева
+ * (для первого столбца - с соседом сверху), младшие и старшие байты разностей записываются
+ * двумя отдельными плоскостями и сжимаются Deflater. Поэтому для показа части изображения
+ * достаточно прочитать и распаковать только плитки, которые ее пересекают.
+ * Формат, порядок байт от младшего к старшему:
+ * сигнатура, версия, ширина, высота, сторона плитки, шаг обзора, ширина и высота обзора (по четыре байта),
+ * смещения всех плиток построчно и конец последней (по восемь байт),
+ * обзор - уменьшенная копия со средними яркостями блоков (по два байта на пиксель), затем сжатые плитки.
+ * Методы чтения можно вызывать из любых потоков.
+ */
+public class MbvTiledFile implements Closeable {
+
+    public static final int DEFAULT_TILE_SIZE = 256; //Сторона плитки по умолчанию
+    public static final int OVERVIEW_SIZE = 256; //Наибольшая сторона обзора
+    private static final int MAGIC = 0x5456424D; //Сигнатура "MBVT"
+    private static final int VERSION = 1; //Версия формата
+    private static final int HEADER_SIZE = 32; //Размер заголовка до таблицы смещений
+    private static final int MAX_CACHED_TILES = 64; //Количество распакованных плиток в кэше
+
+    private final FileChannel channel; //Открытый файл
+    private final int width, height; //Размеры изображения
+    private final int tileSize; //Сторона плитки
+    private final int tilesX, tilesY; //Количество плиток по горизонтали и вертикали
+    private final long[] offsets; //Смещения плиток в файле, последнее - конец последней плитки
+    private final int overviewStep; //Во сколько раз обзор меньше изображения
+    private final MbvImage overview; //Обзор
+    //Распакованные плитки по номерам, вытесняются по давности обращения
+    private final Map<Integer, MbvImage> cache = new LinkedHashMap<Integer, MbvImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, MbvImage> eldest) {
+            return size() > MAX_CACHED_TILES;
+        }
+    };
+
+    private MbvTiledFile(FileChannel channel, int width, int height, int tileSize, long[] offsets,
+                         int overviewStep, MbvImage overview) {
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.tilesY = (height + tileSize - 1) / tileSize;
+        this.offsets = offsets;
+        this.overviewStep = overviewStep;
+        this.overview = overview;
+    }
+
+    /**
+     * Метод открытия файла. Читаются только заголовок, таблица смещений и обзор
+     * @param file Файл .mbvt
+     * @return Открытый файл, который нужно закрыть после использования
+     * @throws IOException Если файл не удалось прочитать или он поврежден
+     */
+    public static MbvTiledFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if(header.getInt() != MAGIC) throw new IOException("Not a .mbvt file");
+            if(header.getInt() != VERSION) throw new IOException("Unsupported .mbvt version");
+            int width = header.getInt();
+            int height = header.getInt();
+            int tileSize = header.getInt();
+            int overviewStep = header.getInt();
+            int overviewWidth = header.getInt();
+            int overviewHeight = header.getInt();
+            if(width < 0 || height < 0 || width > Short.MAX_VALUE || height > Short.MAX_VALUE
+                    || tileSize <= 0 || overviewStep <= 0 || overviewWidth < 0 || overviewHeight < 0
+                    || overviewWidth > width || overviewHeight > height) throw new IOException("Invalid image bounderies");
+
+            int tiles = ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+            ByteBuffer table = read(channel, HEADER_SIZE, 8 * (tiles + 1));
+            long[] offsets = new long[tiles + 1];
+            for(int i = 0; i <= tiles; i++) {
+                offsets[i] = table.getLong();
+                if(i > 0 && offsets[i] < offsets[i - 1]) throw new IOException("Invalid tile table");
+            }
+            if(offsets[tiles] > channel.size()) throw new IOException("Empty bytes");
+
+            MbvImage overview = new MbvImage(overviewWidth, overviewHeight);
+            ByteBuffer pixels = read(channel, HEADER_SIZE + 8L * (tiles + 1), 2 * overviewWidth * overviewHeight);
+            Kernels.decode(pixels, 0, overview.getData(), 0, overviewWidth * overviewHeight);
+            return new MbvTiledFile(channel, width, height, tileSize, offsets, overviewStep, overview);
+        } catch (IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    /**
+     * @return Уменьшенная копия изображения, не требующая распаковки плиток
+     */
+    public MbvImage getOverview() {
+        return overview;
+    }
+
+    /**
+     * @return Во сколько раз обзор меньше изображения по каждой стороне
+     */
+    public int getOverviewStep() {
+        return overviewStep;
+    }
+
+    /**
+     * Метод получения плитки. Плитка берется из кэша или читается и распаковывается
+     * @param tileX Номер столбца плиток
+     * @param tileY Номер строки плиток
+     * @return Плитка; крайние плитки могут быть меньше стороны плитки
+     * @throws IOException Если плитку не удалось прочитать
+     */
+    public MbvImage getTile(int tileX, int tileY) throws IOException {
+        int index = tileY * tilesX + tileX;
+        synchronized(cache) {
+            MbvImage tile = cache.get(index);
+            if(tile != null) return tile;
+        }
+        MbvImage tile = new MbvImage(tileWidth(tileX), tileHeight(tileY));
+        decodeTile(index, tile.getData(), 0, tile.getStride());
+        synchronized(cache) {
+            cache.put(index, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Метод чтения области изображения. Читаются только плитки, пересекающие область
+     * @param x Координата x левого верхнего угла области
+     * @param y Координата y левого верхнего угла области
+     * @param regionWidth Ширина области
+     * @param regionHeight Высота области
+     * @return Изображение области
+     * @throws IOException Если плитки не удалось прочитать
+     */
+    public MbvImage read(int x, int y, int regionWidth, int regionHeight) throws IOException {
+        if(x < 0 || y < 0 || regionWidth < 0 || regionHeight < 0 || x + regionWidth > width || y + regionHeight > height) {
+            throw new IllegalArgumentException("Region is out of image");
+        }
+        MbvImage result = new MbvImage(regionWidth, regionHeight);
+        if(result.isEmpty()) return result;
+        for(int tileY = y / tileSize; tileY <= (y + regionHeight - 1) / tileSize; tileY++) {
+            for(int tileX = x / tileSize; tileX <= (x + regionWidth - 1) / tileSize; tileX++) {
+                MbvImage tile = getTile(tileX, tileY);
+                int left = Math.max(x, tileX * tileSize), right = Math.min(x + regionWidth, tileX * tileSize + tile.getWidth());
+                int top = Math.max(y, tileY * tileSize), bottom = Math.min(y + regionHeight, tileY * tileSize + tile.getHeight());
+                for(int row = top; row < bottom; row++) {
+                    tile.getRow(row - tileY * tileSize, left - tileX * tileSize, right - left,
+                            result.getData(), result.offset(row - y) + left - x);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Метод чтения всего изображения. Плитки распаковываются параллельно в общем пуле потоков, минуя кэш.
+     * Чтение можно прервать прерыванием вызвавшего потока: задачи пула проверяют общий флаг перед каждой плиткой
+     * @param listener Получатель сведений о прогрессе или null
+     * @return Изображение
+     * @throws InterruptedIOException Чтение было прервано
+     * @throws IOException Если плитки не удалось прочитать
+     */
+    public MbvImage readAll(MBVFileReader.ProgressListener listener) throws IOException {
+        if(Thread.currentThread().isInterrupted()) throw new InterruptedIOException(".mbvt reading interrupted");
+        MbvImage result = new MbvImage(width, height);
+        AtomicBoolean stopped = new AtomicBoolean();
+        TileRowsTask task = new TileRowsTask(result, 0, tilesY, listener, new AtomicLong(), stopped);
+        //invoke() сбрасывает флаг прерывания на время ожидания, поэтому ждем через прерываемый get()
+        RenderEngine.getDefault().getPool().execute(task);
+        try {
+            task.get();
+        } catch (InterruptedException interruptedException) {
+            stopped.set(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(".mbvt reading interrupted");
+        } catch (ExecutionException executionException) {
+            throw new IOException(executionException.getCause());
+        }
+        if(task.failure != null) throw task.failure;
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized(cache) {
+            cache.clear();
+        }
+        channel.close();
+    }
+
+    private int tileWidth(int tileX) {
+        return Math.min(tileSize, width - tileX * tileSize);
+    }
+
+    private int tileHeight(int tileY) {
+        return Math.min(tileSize, height - tileY * tileSize);
+    }
+
+    /**
+     * Метод распаковки плитки в массив
+     * @param index Номер плитки
+     * @param dst Массив яркостей
+     * @param dstOffset Позиция левого верхнего угла плитки
+     * @param dstStride Расстояние в массиве между началами соседних строк
+     * @return Размер сжатой плитки в байтах
+     */
+    private int decodeTile(int index, short[] dst, int dstOffset, int dstStride) throws IOException {
+        int tileWidth = tileWidth(index % tilesX), tileHeight = tileHeight(index / tilesX);
+        int length = (int)(offsets[index + 1] - offsets[index]);
+        ByteBuffer compressed = read(channel, offsets[index], length);
+        int count = tileWidth * tileHeight;
+        byte[] planes = new byte[2 * count];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array(), 0, length);
+            int done = 0;
+            while(done < planes.length) {
+                int inflated = inflater.inflate(planes, done, planes.length - done);
+                if(inflated == 0 && (inflater.finished() || inflater.needsInput())) throw new IOException("Tile is truncated");
+                done += inflated;
+            }
+        } catch (DataFormatException dataFormatException) {
+            throw new IOException("Tile is corrupted");
+        } finally {
+            inflater.end();
+        }
+
+        //Обратное преобразование разностей: слева направо, первый столбец - сверху вниз
+        int above = 0;
+        for(int i = 0; i < tileHeight; i++) {
+            int row = dstOffset + i * dstStride;
+            int position = i * tileWidth;
+            int light = (above + ((planes[position] & 0xFF) | (planes[count + position] << 8))) & TransferFunction.MASK;
+            above = light;
+            dst[row] = (short)light;
+            for(int j = 1; j < tileWidth; j++) {
+                light = (light + ((planes[position + j] & 0xFF) | (planes[count + position + j] << 8))) & TransferFunction.MASK;
+                dst[row + j] = (short)light;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Метод сжатия одной плитки
+     * @param image Изображение
+     * @param x Координата x левого верхнего угла плитки
+     * @param y Координата y левого верхнего угла плитки
+     * @param tileWidth Ширина плитки
+     * @param tileHeight Высота плитки
+     * @return Сжатая плитка
+     */
+    static byte[] encodeTile(MbvImage image, int x, int y, int tileWidth, int tileHeight) {
+        int count = tileWidth * tileHeight;
+        byte[] planes = new byte[2 * count];
+        short[] data = image.getData();
+        int above = 0;
+        for(int i = 0; i < tileHeight; i++) {
+            int row = image.offset(y + i) + x;
+            int position = i * tileWidth;
+            int left = above;
+            above = data[row];
+            for(int j = 0; j < tileWidth; j++) {
+                int delta = data[row + j] - left;
+                left = data[row + j];
+                planes[position + j] = (byte)delta;
+                planes[count + position + j] = (byte)(delta >> 8);
+            }
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(planes);
+            deflater.finish();
+            byte[] buffer = new byte[planes.length / 2 + 64];
+            int length = 0;
+            while(!deflater.finished()) {
+                if(length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Метод преобразования файла .mbv в .mbvt. Плитки сжимаются параллельно,
+     * файл записывается во временный файл, который затем заменяет прежний
+     * @param source Файл .mbv
+     * @param target Файл .mbvt
+     * @param tileSize Сторона плитки
+     * @param threads Количество потоков сжатия
+     * @throws IOException Если исходный файл не удалось прочитать или результат записать
+     */
+    public static void convert(File source, File target, int tileSize, int threads) throws IOException {
+        if(tileSize <= 0) throw new IllegalArgumentException("Invalid tile size");
+        final MbvImage image = MBVFileReader.readMapped(source);
+        final int width = image.getWidth(), height = image.getHeight();
+        final int tilesX = (width + tileSize - 1) / tileSize, tilesY = (height + tileSize - 1) / tileSize;
+
+        //Плитки сжимаются построчно: одна задача на строку плиток
+        List<Callable<byte[][]>> tasks = new ArrayList<>();
+        for(int tileY = 0; tileY < tilesY; tileY++) {
+            final int y = tileY * tileSize, tileHeight = Math.min(tileSize, height - y);
+            tasks.add(new Callable<byte[][]>() {
+                @Override
+                public byte[][] call() {
+                    byte[][] row = new byte[tilesX][];
+                    for(int tileX = 0; tileX < tilesX; tileX++) {
+                        int x = tileX * tileSize;
+                        row[tileX] = encodeTile(image, x, y, Math.min(tileSize, width - x), tileHeight);
+                    }
+                    return row;
+                }
+            });
+        }
+        List<byte[]> tiles = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "mbvt-encoder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for(Future<byte[][]> future : executor.invokeAll(tasks)) {
+                for(byte[] tile : future.get()) tiles.add(tile);
+            }
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Conversion interrupted");
+        } catch (ExecutionException executionException) {
+            throw new IOException(executionException.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        //Обзор - средние яркости блоков overviewStep x overviewStep
+        int overviewStep = Math.max(1, (Math.max(width, height) + OVERVIEW_SIZE - 1) / OVERVIEW_SIZE);
+        int overviewWidth = width / overviewStep, overviewHeight = height / overviewStep;
+        long[] sums = new long[overviewWidth * overviewHeight];
+        short[] data = image.getData();
+        for(int i = 0; i < overviewHeight * overviewStep; i++) {
+            int row = image.offset(i);
+            int position = (i / overviewStep) * overviewWidth;
+            for(int j = 0; j < overviewWidth * overviewStep; j++) {
+                sums[position + j / overviewStep] += data[row + j];
+            }
+        }
+
+        int tableSize = 8 * (tiles.size() + 1);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + tableSize + 2 * sums.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(tileSize)
+                .putInt(overviewStep).putInt(overviewWidth).putInt(overviewHeight);
+        long offset = header.capacity();
+        for(byte[] tile : tiles) {
+            header.putLong(offset);
+            offset += tile.length;
+        }
+        header.putLong(offset);
+        for(long sum : sums) {
+            header.putShort((short)(sum / ((long)overviewStep * overviewStep)));
+        }
+        header.flip();
+
+        File temp = new File(target.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while(header.hasRemaining()) out.write(header);
+            for(byte[] tile : tiles) {
+                ByteBuffer buffer = ByteBuffer.wrap(tile);
+                while(buffer.hasRemaining()) out.write(buffer);
+            }
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Метод чтения заданного количества байт с заданной позиции, не меняющий позицию канала
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Empty bytes");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Точка входа преобразования без окна
+     * @param args Файл .mbv или каталог, необязательно сторона плитки и количество потоков
+     * @throws IOException Если файлы не удалось прочитать или записать
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("Usage: MbvTiledFile <file.mbv | directory> [tile size] [threads]");
+            System.exit(2);
+        }
+        int tileSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TILE_SIZE;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        File source = new File(args[0]);
+        File[] files = source.isDirectory() ? source.listFiles() : new File[] {source};
+        if(files == null) throw new IOException("Not a directory");
+        for(File file : files) {
+            if(!file.isFile() || !file.getName().toLowerCase().endsWith(".mbv")) continue;
+            long start = System.nanoTime();
+            File target = new File(file.getPath() + "t");
+            convert(file, target, tileSize, threads);
+            System.out.printf("%s: %d -> %d bytes in %.1f s%n", file.getName(), file.length(), target.length(),
+                    (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    /**
+     * Задача параллельной распаковки строк плиток в общее изображение
+     */
+    private class TileRowsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MbvImage image; //Изображение, в которое распаковываются плитки
+        private final int from, to; //Строки плиток [from; to)
+        private final MBVFileReader.ProgressListener listener; //Получатель сведений о прогрессе или null
+        private final AtomicLong done; //Количество уже распакованных сжатых байт
+        private final AtomicBoolean stopped; //Выставляется при прерывании вызвавшего потока
+        private IOException failure; //Первая ошибка чтения
+
+        TileRowsTask(MbvImage image, int from, int to, MBVFileReader.ProgressListener listener, AtomicLong done,
+                     AtomicBoolean stopped) {
+            this.image = image;
+            this.from = from;
+            this.to = to;
+            this.listener = listener;
+            this.done = done;
+            this.stopped = stopped;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > 1) {
+                int middle = (from + to) >>> 1;
+                TileRowsTask first = new TileRowsTask(image, from, middle, listener, done, stopped);
+                TileRowsTask second = new TileRowsTask(image, middle, to, listener, done, stopped);
+                invokeAll(first, second);
+                failure = first.failure != null ? first.failure : second.failure;
+                return;
+            }
+            try {
+                for(int tileY = from; tileY < to; tileY++) {
+                    for(int tileX = 0; tileX < tilesX; tileX++) {
+                        if(stopped.get()) throw new InterruptedIOException(".mbvt reading interrupted");
+                        int length = decodeTile(tileY * tilesX + tileX, image.getData(),
+                                image.offset(tileY * tileSize) + tileX * tileSize, image.getStride());
+                        long total = done.addAndGet(length);
+                        if(listener != null) listener.progress(total, offsets[offsets.length - 1] - offsets[0]);
+                    }
+                }
+            } catch (IOException ioException) {
+                failure = ioException;
+            }
+        }
+    }
+}
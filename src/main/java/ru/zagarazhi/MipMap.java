@@ -0,0 +1,159 @@
+package ru.zagarazhi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Класс пирамиды уменьшенных копий изображения.
+ * Каждый следующий уровень в два раза меньше предыдущего по обеим сторонам,
+ * а каждый его пиксель равен среднему четырех пикселей предыдущего уровня.
+ * Уменьшенное изображение строится из ближайшего уровня за время, пропорциональное размеру результата.
+ */
+public class MipMap {
+
+    private static final int MIN_SIZE = 16; //Минимальная сторона последнего уровня
+    private static final int BAND_ROWS = 64; //Минимальное количество строк в одной полосе
+
+    private final List<MbvImage> levels; //Уровни пирамиды, нулевой уровень - исходное изображение
+
+    private MipMap(List<MbvImage> levels) {
+        this.levels = Collections.unmodifiableList(levels);
+    }
+
+    /**
+     * Метод построения пирамиды. Строки каждого уровня вычисляются параллельно
+     * @param image Исходное изображение
+     * @return Пирамида изображений
+     */
+    public static MipMap build(MbvImage image) {
+        List<MbvImage> levels = new ArrayList<>();
+        levels.add(image);
+        MbvImage level = image;
+        while(level.getWidth() >= 2 * MIN_SIZE && level.getHeight() >= 2 * MIN_SIZE) {
+            MbvImage next = new MbvImage((level.getWidth() + 1) / 2, (level.getHeight() + 1) / 2);
+            RenderEngine.getDefault().getPool().invoke(new DownsampleTask(level, next, 0, next.getHeight()));
+            levels.add(next);
+            level = next;
+        }
+        return new MipMap(levels);
+    }
+
+    /**
+     * Объем памяти, занимаемый уменьшенными копиями. Исходное изображение не учитывается
+     * @return Размер в байтах
+     */
+    public long bytes() {
+        long result = 0;
+        for(int i = 1; i < levels.size(); i++) {
+            result += 2L * levels.get(i).getData().length;
+        }
+        return result;
+    }
+
+    /**
+     * Метод уменьшения изображения в два раза усреднением блоков 2x2.
+     * Для нечетных размеров последний столбец и строка дублируются
+     * @param src Исходный уровень
+     * @param dst Уменьшенный уровень
+     * @param fromRow Первая вычисляемая строка уменьшенного уровня
+     * @param toRow Строка, следующая за последней вычисляемой
+     */
+    public static void downsample(MbvImage src, MbvImage dst, int fromRow, int toRow) {
+        short[] in = src.getData();
+        short[] out = dst.getData();
+        int lastColumn = src.getWidth() - 1;
+        for(int i = fromRow; i < toRow; i++) {
+            int row = src.offset(2 * i);
+            int nextRow = src.offset(Math.min(2 * i + 1, src.getHeight() - 1));
+            int position = dst.offset(i);
+            for(int j = 0; j < dst.getWidth(); j++) {
+                int x = 2 * j;
+                int x1 = Math.min(x + 1, lastColumn);
+                out[position + j] = (short)((in[row + x] + in[row + x1] + in[nextRow + x] + in[nextRow + x1] + 2) >> 2);
+            }
+        }
+    }
+
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * @param level Номер уровня
+     * @return Изображение уровня
+     */
+    public MbvImage getLevel(int level) {
+        return levels.get(level);
+    }
+
+    /**
+     * Номер самого мелкого уровня, который еще не меньше требуемого прореживания
+     * @param step Прореживание в пикселях исходного изображения
+     * @return Номер уровня
+     */
+    public int levelFor(int step) {
+        int level = 0;
+        while(level + 1 < levels.size() && (2 << level) <= step) level++;
+        return level;
+    }
+
+    /**
+     * Метод построения уменьшенного изображения из ближайшего уровня.
+     * Координаты и шаги задаются в пикселях исходного изображения
+     * @param lut Таблица цветов из 1024 элементов
+     * @param x Координата x первого выбираемого пикселя
+     * @param y Координата y первого выбираемого пикселя
+     * @param stepX Шаг по столбцам
+     * @param stepY Шаг по строкам
+     * @param width Ширина получаемого изображения
+     * @param height Высота получаемого изображения
+     * @param dst Массив, в который записываются цвета
+     * @param dstOffset Позиция в массиве для левого верхнего угла
+     * @param dstStride Расстояние в массиве между началами соседних строк
+     */
+    public void render(int[] lut, int x, int y, int stepX, int stepY, int width, int height,
+                       int[] dst, int dstOffset, int dstStride) {
+        int level = levelFor(Math.min(stepX, stepY));
+        MbvImage image = levels.get(level);
+        short[] data = image.getData();
+        int maxX = image.getWidth() - 1;
+        int maxY = image.getHeight() - 1;
+        for(int i = 0; i < height; i++) {
+            int row = image.offset(Math.min((y + i * stepY) >> level, maxY));
+            int position = dstOffset + i * dstStride;
+            for(int j = 0; j < width; j++) {
+                dst[position + j] = lut[data[row + Math.min((x + j * stepX) >> level, maxX)]];
+            }
+        }
+    }
+
+    /**
+     * Задача уменьшения полосы строк. Слишком большие полосы делятся пополам
+     */
+    private static class DownsampleTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MbvImage src, dst;
+        private final int fromRow, toRow;
+
+        DownsampleTask(MbvImage src, MbvImage dst, int fromRow, int toRow) {
+            this.src = src;
+            this.dst = dst;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            if(toRow - fromRow <= BAND_ROWS) {
+                downsample(src, dst, fromRow, toRow);
+                return;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            invokeAll(new DownsampleTask(src, dst, fromRow, middle), new DownsampleTask(src, dst, middle, toRow));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package ru.zagarazhi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Класс поиска наименьшей и наибольшей яркости в прямоугольнике изображения.
+ * Для квадратов со стороной 4, 16, 64 и т.д. заранее вычисляются минимум и максимум при каждом положении квадрата.
+ * Прямоугольник покрывается перекрывающимися квадратами самого крупного подходящего уровня,
+ * поэтому для квадратного окна требуется не более 16 обращений к таблице независимо от его размера.
+ * Минимум и максимум хранятся в одном int: минимум в старших 16 битах, максимум в младших.
+ */
+public class RangeMinMax {
+
+    private static final int LEVEL_BITS = 2; //Каждый следующий уровень в 4 раза крупнее предыдущего
+    private static final int FIRST_SIZE = 1 << LEVEL_BITS; //Сторона квадрата первого уровня
+    private static final int BAND_ROWS = 64; //Минимальное количество строк в одной полосе
+
+    private final MbvImage image; //Исходное изображение
+    private final List<int[]> levels; //Таблицы уровней
+    private final int[] sizes; //Стороны квадратов уровней
+
+    private RangeMinMax(MbvImage image, List<int[]> levels) {
+        this.image = image;
+        this.levels = levels;
+        this.sizes = new int[levels.size()];
+        for(int i = 0; i < sizes.length; i++) {
+            sizes[i] = FIRST_SIZE << (LEVEL_BITS * i);
+        }
+    }
+
+    /**
+     * Метод построения таблиц. Строки каждого уровня вычисляются параллельно
+     * @param image Исходное изображение
+     * @param maxWindow Наибольшая сторона окна, для которого нужен быстрый поиск
+     * @return Таблицы минимумов и максимумов
+     */
+    public static RangeMinMax build(MbvImage image, int maxWindow) {
+        List<int[]> levels = new ArrayList<>();
+        int[] previous = null;
+        int previousSize = 1;
+        for(int size = FIRST_SIZE; size <= maxWindow && size <= image.getWidth() && size <= image.getHeight(); size <<= LEVEL_BITS) {
+            int[] level = new int[(image.getWidth() - size + 1) * (image.getHeight() - size + 1)];
+            RenderEngine.getDefault().getPool().invoke(
+                    new LevelTask(image, previous, previousSize, level, size, 0, image.getHeight() - size + 1));
+            levels.add(level);
+            previous = level;
+            previousSize = size;
+        }
+        return new RangeMinMax(image, levels);
+    }
+
+    /**
+     * Объем памяти, занимаемый таблицами изображения заданного размера
+     * @param width Ширина изображения
+     * @param height Высота изображения
+     * @param maxWindow Наибольшая сторона окна, для которого нужен быстрый поиск
+     * @return Размер в байтах
+     */
+    public static long bytes(int width, int height, int maxWindow) {
+        long result = 0;
+        for(int size = FIRST_SIZE; size <= maxWindow && size <= width && size <= height; size <<= LEVEL_BITS) {
+            result += 4L * (width - size + 1) * (height - size + 1);
+        }
+        return result;
+    }
+
+    public MbvImage getImage() {
+        return image;
+    }
+
+    /**
+     * @param packed Результат query
+     * @return Наименьшая яркость
+     */
+    public static int min(int packed) {
+        return packed >>> 16;
+    }
+
+    /**
+     * @param packed Результат query
+     * @return Наибольшая яркость
+     */
+    public static int max(int packed) {
+        return packed & 0xFFFF;
+    }
+
+    /**
+     * Метод поиска наименьшей и наибольшей яркости в прямоугольнике
+     * @param x Координата x левого верхнего угла
+     * @param y Координата y левого верхнего угла
+     * @param width Ширина прямоугольника
+     * @param height Высота прямоугольника
+     * @return Минимум и максимум, упакованные в int
+     */
+    public int query(int x, int y, int width, int height) {
+        if(width <= 0 || height <= 0 || x < 0 || y < 0 || x + width > image.getWidth() || y + height > image.getHeight()) {
+            throw new IllegalArgumentException("Invalid range bounderies");
+        }
+        int level = levels.size() - 1;
+        int side = Math.min(width, height);
+        while(level >= 0 && sizes[level] > side) level--;
+        if(level < 0) return scan(x, y, width, height);
+
+        int[] table = levels.get(level);
+        int size = sizes[level];
+        int tableWidth = image.getWidth() - size + 1;
+        int min = Integer.MAX_VALUE, max = 0;
+        //Последний квадрат каждой строки и столбца прижимается к краю прямоугольника
+        for(int i = 0; i < height; i += size) {
+            int row = (Math.min(y + i, y + height - size)) * tableWidth;
+            for(int j = 0; j < width; j += size) {
+                int packed = table[row + Math.min(x + j, x + width - size)];
+                if((packed >>> 16) < min) min = packed >>> 16;
+                if((packed & 0xFFFF) > max) max = packed & 0xFFFF;
+            }
+        }
+        return (min << 16) | max;
+    }
+
+    /**
+     * Поиск полным перебором для прямоугольников меньше первого уровня
+     */
+    private int scan(int x, int y, int width, int height) {
+        short[] data = image.getData();
+        int min = Integer.MAX_VALUE, max = 0;
+        for(int i = y; i < y + height; i++) {
+            int row = image.offset(i);
+            for(int j = x; j < x + width; j++) {
+                int temp = data[row + j];
+                if(temp < min) min = temp;
+                if(temp > max) max = temp;
+            }
+        }
+        return (min << 16) | max;
+    }
+
+    /**
+     * Задача вычисления полосы строк уровня.
+     * Квадрат уровня составляется из 4x4 квадратов предыдущего уровня, первый уровень - из пикселей изображения
+     */
+    private static class LevelTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MbvImage image;
+        private final int[] previous, level;
+        private final int previousSize, size;
+        private final int fromRow, toRow;
+
+        LevelTask(MbvImage image, int[] previous, int previousSize, int[] level, int size, int fromRow, int toRow) {
+            this.image = image;
+            this.previous = previous;
+            this.previousSize = previousSize;
+            this.level = level;
+            this.size = size;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            if(toRow - fromRow > BAND_ROWS) {
+                int middle = (fromRow + toRow) >>> 1;
+                invokeAll(new LevelTask(image, previous, previousSize, level, size, fromRow, middle),
+                        new LevelTask(image, previous, previousSize, level, size, middle, toRow));
+                return;
+            }
+            short[] data = image.getData();
+            int tableWidth = image.getWidth() - size + 1;
+            int previousWidth = image.getWidth() - previousSize + 1;
+            int parts = size / previousSize;
+            for(int y = fromRow; y < toRow; y++) {
+                for(int x = 0; x < tableWidth; x++) {
+                    int min = Integer.MAX_VALUE, max = 0;
+                    for(int a = 0; a < parts; a++) {
+                        int yy = y + a * previousSize;
+                        for(int b = 0; b < parts; b++) {
+                            int xx = x + b * previousSize;
+                            int low, high;
+                            if(previous == null) {
+                                low = high = data[image.offset(yy) + xx];
+                            } else {
+                                int packed = previous[yy * previousWidth + xx];
+                                low = packed >>> 16;
+                                high = packed & 0xFFFF;
+                            }
+                            if(low < min) min = low;
+                            if(high > max) max = high;
+                        }
+                    }
+                    level[y * tableWidth + x] = (min << 16) | max;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package ru.zagarazhi;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Класс многопоточной отрисовки.
+ * Область изображения делится на полосы строк, которые преобразуются в цвета параллельно
+ * в отдельном пуле потоков. Вызывающий поток только ожидает окончания работы,
+ * после чего может передать готовый буфер в полотно.
+ */
+public class RenderEngine {
+
+    private static final int BAND_ROWS = 32; //Минимальное количество строк в одной полосе
+    private static RenderEngine instance;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism Количество потоков отрисовки
+     */
+    public RenderEngine(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Общий экземпляр с количеством потоков по числу ядер процессора
+     * @return Экземпляр класса
+     */
+    public static synchronized RenderEngine getDefault() {
+        if(instance == null) instance = new RenderEngine(Runtime.getRuntime().availableProcessors());
+        return instance;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Задача преобразования области изображения по таблице цветов.
+     * Если задано окно, пиксели внутри выбранной области берутся из его таблицы.
+     * Задача не запускается, ее нужно передать в {@link #invokeAll(Collection)}
+     * @param image Исходное изображение
+     * @param lut Таблица цветов
+     * @param window Таблица цветов выбранной области или null
+     * @param roiLeft Левая граница выбранной области в координатах изображения
+     * @param roiTop Верхняя граница выбранной области в координатах изображения
+     * @param roiRight Правая граница выбранной области в координатах изображения
+     * @param roiBottom Нижняя граница выбранной области в координатах изображения
+     * @param x Координата x левого верхнего угла области
+     * @param y Координата y левого верхнего угла области
+     * @param width Ширина области
+     * @param height Высота области
+     * @param dst Массив, в который записываются цвета
+     * @param dstOffset Позиция в массиве для левого верхнего угла области
+     * @param dstStride Расстояние в массиве между началами соседних строк
+     * @return Задача отрисовки
+     */
+    public ForkJoinTask<?> mapTask(MbvImage image, int[] lut, int[] window,
+                                   int roiLeft, int roiTop, int roiRight, int roiBottom,
+                                   int x, int y, int width, int height,
+                                   int[] dst, int dstOffset, int dstStride) {
+        return new MapTask(image, lut, window, roiLeft, roiTop, roiRight, roiBottom,
+                x, y, 1, 1, width, height, dst, dstOffset, dstStride);
+    }
+
+    /**
+     * Параллельное преобразование области изображения по таблице цветов
+     * @see ImageRenderer#map(MbvImage, int[], int, int, int, int, int[], int, int)
+     */
+    public void map(MbvImage image, int[] lut,
+                    int x, int y, int width, int height,
+                    int[] dst, int dstOffset, int dstStride) {
+        pool.invoke(new MapTask(image, lut, null, 0, 0, 0, 0,
+                x, y, 1, 1, width, height, dst, dstOffset, dstStride));
+    }
+
+    /**
+     * Параллельное преобразование области изображения с прореживанием
+     * @see ImageRenderer#sample(MbvImage, int[], int, int, int, int, int, int, int[], int, int)
+     */
+    public void sample(MbvImage image, int[] lut,
+                       int x, int y, int stepX, int stepY, int width, int height,
+                       int[] dst, int dstOffset, int dstStride) {
+        pool.invoke(new MapTask(image, lut, null, 0, 0, 0, 0,
+                x, y, stepX, stepY, width, height, dst, dstOffset, dstStride));
+    }
+
+    /**
+     * Метод параллельного выполнения нескольких задач с ожиданием их окончания
+     * @param tasks Задачи отрисовки
+     */
+    public void invokeAll(Collection<ForkJoinTask<?>> tasks) {
+        if(tasks.isEmpty()) return;
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Задача отрисовки полосы строк. Слишком большие полосы делятся пополам
+     */
+    private static class MapTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MbvImage image;
+        private final int[] lut, window;
+        private final int roiLeft, roiTop, roiRight, roiBottom;
+        private final int x, y, stepX, stepY, width, height;
+        private final int[] dst;
+        private final int dstOffset, dstStride;
+
+        MapTask(MbvImage image, int[] lut, int[] window,
+                int roiLeft, int roiTop, int roiRight, int roiBottom,
+                int x, int y, int stepX, int stepY, int width, int height,
+                int[] dst, int dstOffset, int dstStride) {
+            this.image = image;
+            this.lut = lut;
+            this.window = window;
+            this.roiLeft = roiLeft;
+            this.roiTop = roiTop;
+            this.roiRight = roiRight;
+            this.roiBottom = roiBottom;
+            this.x = x;
+            this.y = y;
+            this.stepX = stepX;
+            this.stepY = stepY;
+            this.width = width;
+            this.height = height;
+            this.dst = dst;
+            this.dstOffset = dstOffset;
+            this.dstStride = dstStride;
+        }
+
+        @Override
+        protected void compute() {
+            if(height > BAND_ROWS) {
+                int half = height / 2;
+                invokeAll(band(0, half), band(half, height - half));
+                return;
+            }
+            if(stepX == 1 && stepY == 1) {
+                ImageRenderer.map(image, lut, x, y, width, height, dst, dstOffset, dstStride);
+            } else {
+                ImageRenderer.sample(image, lut, x, y, stepX, stepY, width, height, dst, dstOffset, dstStride);
+            }
+            if(window != null) {
+                //Пересечение полосы с выбранной областью
+                int x0 = Math.max(roiLeft, x);
+                int y0 = Math.max(roiTop, y);
+                int x1 = Math.min(roiRight, x + width);
+                int y1 = Math.min(roiBottom, y + height);
+                if(x1 > x0 && y1 > y0) {
+                    ImageRenderer.map(image, window, x0, y0, x1 - x0, y1 - y0,
+                            dst, dstOffset + (y0 - y) * dstStride + (x0 - x), dstStride);
+                }
+            }
+        }
+
+        private MapTask band(int from, int rows) {
+            return new MapTask(image, lut, window, roiLeft, roiTop, roiRight, roiBottom,
+                    x, y + from * stepY, stepX, stepY, width, rows,
+                    dst, dstOffset + from * dstStride, dstStride);
+        }
+    }
+}
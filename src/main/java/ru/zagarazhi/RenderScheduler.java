@@ -0,0 +1,65 @@
+package ru.zagarazhi;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Класс планировщика перерисовок.
+ * Запросы на перерисовку собираются по областям окна, для каждой области хранится только последний запрос.
+ * Накопленные запросы выполняются не чаще одного раза за кадр JavaFX,
+ * поэтому поток событий от мыши или клавиатуры приводит не более чем к одной перерисовке за кадр.
+ * Все методы должны вызываться в потоке JavaFX.
+ */
+public class RenderScheduler extends AnimationTimer {
+
+    /**
+     * Область окна, которую нужно перерисовать
+     */
+    public enum Target {
+        FRAME, //Смена кадра серии
+        MAIN, //Основное изображение
+        OVERVIEW, //Обзорное изображение
+        MAGNIFIER, //Увеличенный участок
+        HISTOGRAM //Гистограмма
+    }
+
+    private final Map<Target, Runnable> pending = new EnumMap<>(Target.class); //Последние запросы
+    private boolean running; //Запущен ли таймер
+
+    /**
+     * Метод запроса перерисовки. Предыдущий невыполненный запрос той же области отбрасывается
+     * @param target Область окна
+     * @param redraw Действие перерисовки
+     */
+    public void request(Target target, Runnable redraw) {
+        pending.put(target, redraw);
+        if(!running) {
+            running = true;
+            start();
+        }
+    }
+
+    /**
+     * Метод отмены невыполненного запроса
+     * @param target Область окна
+     */
+    public void cancel(Target target) {
+        pending.remove(target);
+    }
+
+    @Override
+    public void handle(long now) {
+        //Таймер останавливается, пока не появятся новые запросы
+        if(pending.isEmpty()) {
+            running = false;
+            stop();
+            return;
+        }
+        for(Target target : Target.values()) {
+            Runnable redraw = pending.remove(target);
+            if(redraw != null) redraw.run();
+        }
+    }
+}
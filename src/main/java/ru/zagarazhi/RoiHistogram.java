@@ -0,0 +1,95 @@
+package ru.zagarazhi;
+
+import java.util.Arrays;
+
+/**
+ * Класс гистограммы выбранной области, обновляемой при движении ее границ.
+ * При небольшом смещении границ открывшиеся полосы прибавляются, а ушедшие вычитаются,
+ * поэтому стоимость обновления пропорциональна площади изменившихся полос.
+ * Если полос слишком много, гистограмма собирается заново из индекса.
+ */
+public class RoiHistogram {
+
+    private final HistogramIndex index; //Индекс гистограмм изображения
+    private final MbvImage image; //Исходное изображение
+    private final int[] counts = new int[Histogram.BINS]; //Гистограмма текущей области
+    private int left, top, right, bottom; //Текущая область, изначально пустая
+
+    /**
+     * @param index Индекс гистограмм изображения
+     */
+    public RoiHistogram(HistogramIndex index) {
+        this.index = index;
+        this.image = index.getImage();
+    }
+
+    public MbvImage getImage() {
+        return image;
+    }
+
+    /**
+     * Прямой доступ к гистограмме текущей области
+     * @return Массив из 1024 элементов
+     */
+    public int[] getCounts() {
+        return counts;
+    }
+
+    /**
+     * Метод перемещения области [left;right) x [top;bottom). Область обрезается по границам изображения
+     * @param left Первый столбец
+     * @param top Первая строка
+     * @param right Столбец, следующий за последним
+     * @param bottom Строка, следующая за последней
+     */
+    public void update(int left, int top, int right, int bottom) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.max(Math.min(right, image.getWidth()), left);
+        bottom = Math.max(Math.min(bottom, image.getHeight()), top);
+        if(left == this.left && top == this.top && right == this.right && bottom == this.bottom) return;
+
+        //Площадь полос, которые придется прибавить или вычесть
+        long rowsChanged = Math.abs(top - this.top) + Math.abs(bottom - this.bottom);
+        long columnsChanged = Math.abs(left - this.left) + Math.abs(right - this.right);
+        long stripCost = rowsChanged * Math.max(right - left, this.right - this.left)
+                + columnsChanged * Math.max(bottom - top, this.bottom - this.top);
+        if(stripCost >= HistogramIndex.queryCost(right - left, bottom - top)) {
+            Arrays.fill(counts, 0);
+            index.query(left, top, right, bottom, counts);
+        } else {
+            //Сначала строки меняются при прежних столбцах, затем столбцы при новых строках
+            rows(this.left, this.right, this.top, top, true);
+            rows(this.left, this.right, this.bottom, bottom, false);
+            columns(top, bottom, this.left, left, true);
+            columns(top, bottom, this.right, right, false);
+        }
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    /**
+     * Перемещение верхней или нижней границы от from к to при столбцах [fromColumn;toColumn)
+     * @param leading true для верхней (левой) границы, false для нижней (правой)
+     */
+    private void rows(int fromColumn, int toColumn, int from, int to, boolean leading) {
+        if(from == to) return;
+        int low = Math.min(from, to), high = Math.max(from, to);
+        //Для верхней границы движение вниз убирает строки, для нижней - добавляет
+        int sign = (to > from) == leading ? -1 : 1;
+        HistogramIndex.add(image, fromColumn, low, toColumn, high, counts, sign);
+    }
+
+    /**
+     * Перемещение левой или правой границы от from к to при строках [fromRow;toRow)
+     * @param leading true для левой границы, false для правой
+     */
+    private void columns(int fromRow, int toRow, int from, int to, boolean leading) {
+        if(from == to) return;
+        int low = Math.min(from, to), high = Math.max(from, to);
+        int sign = (to > from) == leading ? -1 : 1;
+        HistogramIndex.add(image, low, fromRow, high, toRow, counts, sign);
+    }
+}
@@ -0,0 +1,85 @@
+package ru.zagarazhi;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Класс кэша отрисованных плиток изображения.
+ * Хранит не более заданного количества плиток и вытесняет дольше всего не использовавшиеся.
+ * Массивы вытесненных плиток переиспользуются для новых плиток.
+ */
+public class TileCache {
+
+    private final int capacity; //Максимальное количество плиток
+    private final int tileLength; //Размер массива одной плитки
+    private final ArrayDeque<int[]> free = new ArrayDeque<>(); //Освободившиеся массивы
+    private final LinkedHashMap<Long, int[]> tiles;
+
+    /**
+     * @param capacity Максимальное количество хранимых плиток
+     * @param tileLength Размер массива одной плитки
+     */
+    public TileCache(int capacity, int tileLength) {
+        this.capacity = capacity;
+        this.tileLength = tileLength;
+        this.tiles = new LinkedHashMap<Long, int[]>(capacity * 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+                if(size() > TileCache.this.capacity) {
+                    free.push(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Ключ плитки по ее номеру столбца и строки
+     * @param tileX Номер столбца плиток
+     * @param tileY Номер строки плиток
+     * @return Ключ плитки
+     */
+    public static long key(int tileX, int tileY) {
+        return ((long)tileY << 32) | (tileX & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param key Ключ плитки
+     * @return Массив плитки или null, если плитки нет в кэше
+     */
+    public int[] get(long key) {
+        return tiles.get(key);
+    }
+
+    /**
+     * Метод получения массива под новую плитку
+     * @return Свободный массив, содержимое которого не определено
+     */
+    public int[] acquire() {
+        int[] tile = free.poll();
+        return tile != null ? tile : new int[tileLength];
+    }
+
+    /**
+     * Метод добавления плитки в кэш
+     * @param key Ключ плитки
+     * @param tile Массив плитки
+     */
+    public void put(long key, int[] tile) {
+        tiles.put(key, tile);
+    }
+
+    /**
+     * Метод очистки кэша. Массивы плиток остаются доступны для переиспользования
+     */
+    public void clear() {
+        for(int[] tile : tiles.values()) {
+            if(free.size() < capacity) free.push(tile);
+        }
+        tiles.clear();
+    }
+}
@@ -0,0 +1,172 @@
+package ru.zagarazhi;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.layout.Pane;
+
+/**
+ * Класс основного поля просмотра изображения.
+ * Размер поля совпадает с размером изображения с учетом отступа, но полотно внутри него
+ * имеет размер только видимой области и перемещается вместе с ней.
+ * Изображение разбито на плитки, которые отрисовываются по мере прокрутки и хранятся в кэше.
+ * Координаты событий мыши на поле совпадают с координатами изображения с учетом отступа.
+ */
+public class TiledImageView extends Pane {
+
+    public static final int TILE_SIZE = 256; //Размер стороны плитки
+    private static final int CACHE_TILES = 96; //Количество плиток в кэше
+
+    private final Canvas canvas = new Canvas(); //Полотно видимой области
+    private final TileCache cache = new TileCache(CACHE_TILES, TILE_SIZE * TILE_SIZE);
+    private final RenderEngine engine = RenderEngine.getDefault();
+    private MbvImage image; //Отображаемое изображение
+    private int padding; //Количество пропущенных строк сверху
+    private TransferFunction transfer; //Передаточная функция всего изображения
+    private TransferFunction window; //Передаточная функция выбранной области
+    private int roiLeft, roiRight, roiTop, roiBottom; //Границы выбранной области
+    private double viewX, viewY, viewWidth, viewHeight; //Видимая область
+
+    public TiledImageView() {
+        canvas.setManaged(false);
+        getChildren().add(canvas);
+    }
+
+    /**
+     * Метод смены отображаемого изображения. Выбранная область при этом сбрасывается
+     * @param image Изображение
+     * @param padding Количество строк сверху, которое будет пропущено
+     * @param transfer Передаточная функция
+     */
+    public void setImage(MbvImage image, int padding, TransferFunction transfer) {
+        this.image = image;
+        this.padding = padding;
+        this.transfer = transfer;
+        this.window = null;
+        setMinSize(getImageWidth(), getImageHeight());
+        setPrefSize(getImageWidth(), getImageHeight());
+        setMaxSize(getImageWidth(), getImageHeight());
+        invalidate();
+    }
+
+    /**
+     * Метод отображения выбранной области через окно яркостей
+     * Границы задаются в координатах поля
+     * @param window Передаточная функция окна яркостей
+     * @param left Левая граница области
+     * @param right Правая граница области
+     * @param top Верхняя граница области
+     * @param bottom Нижняя граница области
+     */
+    public void setWindow(TransferFunction window, int left, int right, int top, int bottom) {
+        this.window = window;
+        this.roiLeft = Math.max(0, left);
+        this.roiRight = Math.min(getImageWidth(), right);
+        this.roiTop = Math.max(0, top);
+        this.roiBottom = Math.min(getImageHeight(), bottom);
+        invalidate();
+    }
+
+    /**
+     * Метод смены видимой области
+     * @param x Координата x левого верхнего угла видимой области
+     * @param y Координата y левого верхнего угла видимой области
+     * @param width Ширина видимой области
+     * @param height Высота видимой области
+     */
+    public void setViewport(double x, double y, double width, double height) {
+        viewX = x;
+        viewY = y;
+        viewWidth = width;
+        viewHeight = height;
+        repaint();
+    }
+
+    public int getImageWidth() {
+        return image == null ? 0 : image.getWidth();
+    }
+
+    public int getImageHeight() {
+        return image == null ? 0 : Math.max(0, image.getHeight() - padding);
+    }
+
+    /**
+     * Метод сброса всех отрисованных плиток и перерисовки видимой области
+     */
+    public void invalidate() {
+        cache.clear();
+        repaint();
+    }
+
+    /**
+     * Метод отрисовки видимой области.
+     * Плитки, уже находящиеся в кэше, только копируются в полотно.
+     * Видимые плитки всегда помещаются в кэш, поэтому не вытесняют друг друга
+     */
+    private void repaint() {
+        int left = Math.max(0, (int)viewX);
+        int top = Math.max(0, (int)viewY);
+        int right = Math.min(getImageWidth(), (int)Math.ceil(viewX + viewWidth));
+        int bottom = Math.min(getImageHeight(), (int)Math.ceil(viewY + viewHeight));
+        if(image == null || transfer == null || right <= left || bottom <= top) {
+            canvas.setWidth(0);
+            canvas.setHeight(0);
+            return;
+        }
+        canvas.relocate(left, top);
+        canvas.setWidth(right - left);
+        canvas.setHeight(bottom - top);
+        //Недостающие плитки отрисовываются параллельно, в полотно они передаются уже готовыми
+        int firstX = left / TILE_SIZE, lastX = (right - 1) / TILE_SIZE;
+        int firstY = top / TILE_SIZE, lastY = (bottom - 1) / TILE_SIZE;
+        int[][] tiles = new int[(lastY - firstY + 1) * (lastX - firstX + 1)][];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for(int tileY = firstY, n = 0; tileY <= lastY; tileY++) {
+            for(int tileX = firstX; tileX <= lastX; tileX++, n++) {
+                tiles[n] = cache.get(TileCache.key(tileX, tileY));
+                if(tiles[n] == null) {
+                    tiles[n] = cache.acquire();
+                    tasks.add(tileTask(tileX, tileY, tiles[n]));
+                }
+            }
+        }
+        engine.invokeAll(tasks);
+        PixelWriter pixelWriter = canvas.getGraphicsContext2D().getPixelWriter();
+        PixelFormat<IntBuffer> format = PixelFormat.getIntArgbPreInstance();
+        for(int tileY = firstY, n = 0; tileY <= lastY; tileY++) {
+            for(int tileX = firstX; tileX <= lastX; tileX++, n++) {
+                int[] tile = tiles[n];
+                cache.put(TileCache.key(tileX, tileY), tile);
+                //Пересечение плитки с видимой областью
+                int x0 = Math.max(left, tileX * TILE_SIZE);
+                int y0 = Math.max(top, tileY * TILE_SIZE);
+                int x1 = Math.min(right, (tileX + 1) * TILE_SIZE);
+                int y1 = Math.min(bottom, (tileY + 1) * TILE_SIZE);
+                int tileOffset = (y0 - tileY * TILE_SIZE) * TILE_SIZE + (x0 - tileX * TILE_SIZE);
+                pixelWriter.setPixels(x0 - left, y0 - top, x1 - x0, y1 - y0, format, tile, tileOffset, TILE_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Задача отрисовки одной плитки
+     * @param tileX Номер столбца плиток
+     * @param tileY Номер строки плиток
+     * @param tile Массив, в который будет записана плитка
+     * @return Задача отрисовки
+     */
+    private ForkJoinTask<?> tileTask(int tileX, int tileY, int[] tile) {
+        int x = tileX * TILE_SIZE;
+        int y = tileY * TILE_SIZE;
+        int width = Math.min(TILE_SIZE, getImageWidth() - x);
+        int height = Math.min(TILE_SIZE, getImageHeight() - y);
+        return engine.mapTask(image, transfer.getTable(), window == null ? null : window.getTable(),
+                roiLeft, roiTop + padding, roiRight, roiBottom + padding,
+                x, y + padding, width, height, tile, 0, TILE_SIZE);
+    }
+}
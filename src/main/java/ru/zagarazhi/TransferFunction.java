@@ -0,0 +1,141 @@
+package ru.zagarazhi;
+
+/**
+ * Класс передаточной функции, превращающей десятибитную яркость в цвет формата INT_ARGB.
+ * Так как значений яркости всего 1024, функция целиком вычисляется заранее в таблицу,
+ * и отрисовка каждого пикселя сводится к одному обращению к массиву.
+ * Таблица пересчитывается только при изменении настроек.
+ */
+public class TransferFunction {
+
+    public static final int SIZE = 1024; //Количество возможных значений яркости
+    public static final int MASK = SIZE - 1; //Маска десяти значимых бит
+
+    /**
+     * Способ отображения яркостей, вышедших за границы окна
+     */
+    public enum Clamp {
+        ZERO, //Яркость заменяется на 0
+        MAX, //Яркость заменяется на 255
+        BORDER //Яркость заменяется на ближайшую границу окна
+    }
+
+    private final int[] table; //Цвет для каждого значения яркости
+
+    private TransferFunction(int[] table) {
+        this.table = table;
+    }
+
+    /**
+     * Метод, превращающий восьмибитную яркость в формат INT_ARGB.
+     * Причем Альфа-канал всегда 0xFF.
+     * @param light Яркость в диапазоне [0;255]
+     * @return Цвет в формате INT_ARGB
+     */
+    public static int gray(int light) {
+        return (0xFF000000 | (light << 16) | (light << 8) | light);
+    }
+
+    /**
+     * Метод, превращающий двухбайтную яркость в формат INT_ARGB со сдвигом.
+     * Старшие байты будут срезаны, если выходят за границы
+     * @param num Исходная яркость
+     * @param offset Количество бит, на которое будет сдвинута яркость
+     * @return Цвет в формате INT_ARGB
+     */
+    public static int cut(short num, int offset) {
+        return gray((num >>> offset) & 0xFF);
+    }
+
+    /**
+     * Передаточная функция простого сдвига
+     * @param offset Количество бит, на которое будет сдвинута каждая яркость
+     * @return Передаточная функция
+     */
+    public static TransferFunction shift(int offset) {
+        int[] table = new int[SIZE];
+        for(int i = 0; i < SIZE; i++) {
+            table[i] = cut((short)i, offset);
+        }
+        return new TransferFunction(table);
+    }
+
+    /**
+     * Передаточная функция окна яркостей
+     * @param offset Количество бит, на которое будет сдвинута каждая яркость
+     * @param stretch Нужно ли растягивать окно на весь диапазон яркостей
+     * @param lowFill Нижняя граница окна
+     * @param highFill Верхняя граница окна
+     * @param below Способ отображения яркостей ниже окна
+     * @param above Способ отображения яркостей выше окна
+     * @return Передаточная функция
+     */
+    public static TransferFunction window(int offset,
+                                          boolean stretch,
+                                          int lowFill,
+                                          int highFill,
+                                          Clamp below,
+                                          Clamp above) {
+        int[] table = new int[SIZE];
+        double coef = 1023.0 / (highFill - lowFill);
+        short temp = 0;
+        for(int i = 0; i < SIZE; i++) {
+            if(stretch) {
+                temp = (short)((i * coef) + lowFill);
+            } else {
+                temp = (short)i;
+                if(temp > highFill) {
+                    temp = clamp(above, highFill);
+                } else if(temp < lowFill) {
+                    temp = clamp(below, lowFill);
+                }
+            }
+            table[i] = cut(temp, offset);
+        }
+        return new TransferFunction(table);
+    }
+
+    /**
+     * Передаточная функция линейного окна: яркость low переходит в 0, high - в 255,
+     * промежуточные яркости распределяются равномерно, а яркости вне окна прижимаются к его краям.
+     * В отличие от {@link #window(int, boolean, int, int, Clamp, Clamp)} с растяжением,
+     * результат не зависит от сдвига и не убывает с ростом яркости
+     * @param low Нижняя граница окна
+     * @param high Верхняя граница окна, больше нижней
+     * @return Передаточная функция
+     */
+    public static TransferFunction linearWindow(int low, int high) {
+        if(high <= low) throw new IllegalArgumentException("Invalid window " + low + ":" + high);
+        int[] table = new int[SIZE];
+        for(int i = 0; i < SIZE; i++) {
+            int light = (i - low) * 255 / (high - low);
+            table[i] = gray(Math.max(0, Math.min(255, light)));
+        }
+        return new TransferFunction(table);
+    }
+
+    private static short clamp(Clamp clamp, int border) {
+        switch(clamp) {
+            case ZERO: return 0;
+            case MAX: return 255;
+            default: return (short)border;
+        }
+    }
+
+    /**
+     * Цвет одного значения яркости
+     * @param num Яркость
+     * @return Цвет в формате INT_ARGB
+     */
+    public int map(int num) {
+        return table[num & MASK];
+    }
+
+    /**
+     * Прямой доступ к таблице для плотных циклов
+     * @return Массив из 1024 цветов в формате INT_ARGB
+     */
+    public int[] getTable() {
+        return table;
+    }
+}
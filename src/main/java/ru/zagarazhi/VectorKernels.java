@@ -0,0 +1,76 @@
+package ru.zagarazhi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Векторные реализации циклов {@link Kernels}.
+ * Класс загружается только если модуль jdk.incubator.vector доступен, поэтому напрямую его использовать нельзя.
+ * Хвосты короче одного вектора обрабатываются скалярным кодом.
+ */
+final class VectorKernels {
+
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED; //Вектор яркостей
+    //Вектор байт с тем же количеством элементов, что и вектор яркостей
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(SHORTS.vectorBitSize() / 2));
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED; //Вектор цветов
+    //Вектор яркостей с тем же количеством элементов, что и вектор цветов
+    private static final VectorSpecies<Short> HALF_SHORTS = VectorSpecies.of(short.class,
+            VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+
+    private VectorKernels() {
+    }
+
+    /**
+     * @see Kernels#decode(ByteBuffer, int, short[], int, int)
+     */
+    static void decode(ByteBuffer src, int srcOffset, short[] dst, int dstOffset, int count) {
+        int bound = SHORTS.loopBound(count);
+        int i = 0;
+        for(; i < bound; i += SHORTS.length()) {
+            ShortVector.fromByteBuffer(SHORTS, src, srcOffset + 2 * i, ByteOrder.LITTLE_ENDIAN)
+                    .and((short)TransferFunction.MASK)
+                    .intoArray(dst, dstOffset + i);
+        }
+        Kernels.decodeScalar(src, srcOffset + 2 * i, dst, dstOffset + i, count - i);
+    }
+
+    /**
+     * @see Kernels#shiftToGray(short[], int, byte[], int, int, int)
+     */
+    static void shiftToGray(short[] src, int srcOffset, byte[] dst, int dstOffset, int count, int offset) {
+        int bound = SHORTS.loopBound(count);
+        int i = 0;
+        for(; i < bound; i += SHORTS.length()) {
+            ShortVector light = ShortVector.fromArray(SHORTS, src, srcOffset + i)
+                    .lanewise(VectorOperators.LSHR, offset)
+                    .and((short)0xFF);
+            ((ByteVector)light.castShape(BYTES, 0)).intoArray(dst, dstOffset + i);
+        }
+        Kernels.shiftToGrayScalar(src, srcOffset + i, dst, dstOffset + i, count - i, offset);
+    }
+
+    /**
+     * @see Kernels#shiftToArgb(short[], int, int[], int, int, int)
+     */
+    static void shiftToArgb(short[] src, int srcOffset, int[] dst, int dstOffset, int count, int offset) {
+        int bound = HALF_SHORTS.loopBound(count);
+        int i = 0;
+        for(; i < bound; i += HALF_SHORTS.length()) {
+            IntVector light = ((IntVector)ShortVector.fromArray(HALF_SHORTS, src, srcOffset + i)
+                    .convertShape(VectorOperators.S2I, INTS, 0))
+                    .lanewise(VectorOperators.LSHR, offset)
+                    .and(0xFF);
+            light.mul(0x010101).or(0xFF000000).intoArray(dst, dstOffset + i);
+        }
+        Kernels.shiftToArgbScalar(src, srcOffset + i, dst, dstOffset + i, count - i, offset);
+    }
+}